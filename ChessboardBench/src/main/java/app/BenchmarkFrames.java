@@ -0,0 +1,160 @@
+package app;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+//Synthetic camera frames for the benchmarks: the 9x6 chessboard of ViewController or the 4x11 asymmetric circle grid
+//of Controller2, drawn flat, tilted with a homography, blurred and given sensor noise so the detectors do real work.
+//The frames are deterministic, every fork of a benchmark sees the same pixels.
+public class BenchmarkFrames {
+	
+	public static final Size CHESSBOARD = new Size(9, 6);
+	public static final Size CIRCLES = new Size(4, 11);
+	
+	private static boolean loaded = false;
+	
+	//The native library from java.library.path like Main, otherwise the copy packed into the OpenCV jar
+	public static synchronized void loadNative()
+	{
+		if(loaded)
+		{
+			return;
+		}
+		
+		try
+		{
+			System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+		}
+		catch(UnsatisfiedLinkError e)
+		{
+			nu.pattern.OpenCV.loadLocally();
+		}
+		
+		loaded = true;
+	}
+	
+	//"640x480", "1920x1080" or "3840x2160"
+	public static Size parse(String resolution)
+	{
+		String[] parts = resolution.toLowerCase().split("x");
+		
+		return new Size(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+	}
+	
+	public static Mat chessboard(Size size)
+	{
+		Mat target = blank(size);
+		
+		//Board about half as wide as the frame, with a white margin of one square like a printed target
+		int columns = (int) CHESSBOARD.width + 1;
+		int rows = (int) CHESSBOARD.height + 1;
+		double square = size.width * 0.5 / columns;
+		double left = (size.width - columns * square) / 2;
+		double top = (size.height - rows * square) / 2;
+		
+		for(int row = 0; row < rows; row++)
+		{
+			for(int column = 0; column < columns; column++)
+			{
+				if((row + column) % 2 == 0)
+				{
+					Point from = new Point(left + column * square, top + row * square);
+					Point to = new Point(left + (column + 1) * square - 1, top + (row + 1) * square - 1);
+					Imgproc.rectangle(target, from, to, new Scalar(0, 0, 0), Core.FILLED);
+				}
+			}
+		}
+		
+		return camera(target);
+	}
+	
+	public static Mat circles(Size size)
+	{
+		Mat target = blank(size);
+		
+		//Same layout as the object points of an asymmetric grid: (2 * column + row % 2, row) in units of spacing
+		double spacing = size.height * 0.6 / (CIRCLES.height - 1);
+		double width = (2 * (CIRCLES.width - 1) + 1) * spacing;
+		double left = (size.width - width) / 2;
+		double top = (size.height - (CIRCLES.height - 1) * spacing) / 2;
+		int radius = (int) Math.max(2, spacing * 0.3);
+		
+		for(int row = 0; row < CIRCLES.height; row++)
+		{
+			for(int column = 0; column < CIRCLES.width; column++)
+			{
+				Point center = new Point(left + (2 * column + row % 2) * spacing, top + row * spacing);
+				Imgproc.circle(target, center, radius, new Scalar(0, 0, 0), Core.FILLED, Imgproc.LINE_AA, 0);
+			}
+		}
+		
+		return camera(target);
+	}
+	
+	public static Mat gray(Mat frame)
+	{
+		Mat gray = new Mat();
+		Imgproc.cvtColor(frame, gray, Imgproc.COLOR_BGR2GRAY);
+		
+		return gray;
+	}
+	
+	//A plausible webcam: focal length close to the width, principal point in the centre, visible barrel distortion
+	public static Mat intrinsic(Size size)
+	{
+		Mat intrinsic = Mat.eye(3, 3, CvType.CV_64F);
+		intrinsic.put(0, 0, size.width * 0.9);
+		intrinsic.put(1, 1, size.width * 0.9);
+		intrinsic.put(0, 2, size.width / 2);
+		intrinsic.put(1, 2, size.height / 2);
+		
+		return intrinsic;
+	}
+	
+	public static Mat distortion()
+	{
+		Mat distortion = new Mat(1, 5, CvType.CV_64F);
+		distortion.put(0, 0, -0.25, 0.1, 0.001, -0.001, 0);
+		
+		return distortion;
+	}
+	
+	private static Mat blank(Size size)
+	{
+		return new Mat(size, CvType.CV_8UC3, new Scalar(235, 235, 235));
+	}
+	
+	//Tilts the flat target, softens it like a lens would and adds noise
+	private static Mat camera(Mat target)
+	{
+		double width = target.cols();
+		double height = target.rows();
+		
+		MatOfPoint2f flat = new MatOfPoint2f(new Point(0, 0), new Point(width, 0), new Point(width, height), new Point(0, height));
+		MatOfPoint2f tilted = new MatOfPoint2f(
+				new Point(width * 0.06, height * 0.04), new Point(width * 0.97, height * 0.1),
+				new Point(width * 0.92, height * 0.95), new Point(width * 0.02, height * 0.9));
+		Mat homography = Imgproc.getPerspectiveTransform(flat, tilted);
+		
+		Mat frame = new Mat();
+		Imgproc.warpPerspective(target, frame, homography, target.size(), Imgproc.INTER_LINEAR, Core.BORDER_CONSTANT, new Scalar(120, 120, 120));
+		Imgproc.GaussianBlur(frame, frame, new Size(3, 3), 0);
+		
+		Mat noise = new Mat(frame.size(), CvType.CV_16SC3);
+		Core.setRNGSeed(20170301);
+		Core.randn(noise, 0, 4);
+		
+		Mat noisy = new Mat();
+		frame.convertTo(noisy, CvType.CV_16SC3);
+		Core.add(noisy, noise, noisy);
+		noisy.convertTo(frame, CvType.CV_8UC3);
+		
+		return frame;
+	}
+}
@@ -0,0 +1,91 @@
+package app;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+
+//Getting a colour frame into JavaFX. mat2Image and matToBufferedImage are the conversion the controllers used before
+//MatView, copied here unchanged: a new BufferedImage and a new FX image per frame. matView is the current path, show
+//on the frame loop plus the paint DisplayPump does on the next pulse.
+//The ImageView is never put in a scene, so painting it off the FX thread is allowed.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+	
+	@Param({"640x480", "1920x1080", "3840x2160"})
+	public String resolution;
+	
+	private Mat frame;
+	private MatView matView;
+	
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		BenchmarkFrames.loadNative();
+		
+		frame = BenchmarkFrames.chessboard(BenchmarkFrames.parse(resolution));
+		matView = new MatView(new ImageView());
+	}
+	
+	@Benchmark
+	public BufferedImage matToBufferedImage()
+	{
+		return matToBufferedImage(frame);
+	}
+	
+	@Benchmark
+	public Image mat2Image()
+	{
+		return SwingFXUtils.toFXImage(matToBufferedImage(frame), null);
+	}
+	
+	@Benchmark
+	public boolean matView()
+	{
+		matView.show(frame, System.nanoTime());
+		
+		return matView.paint();
+	}
+	
+	private static BufferedImage matToBufferedImage(Mat original)
+	{
+		int type = 0;
+		
+		if(original.channels() == 1)
+		{
+			type = BufferedImage.TYPE_BYTE_GRAY;
+		}
+		else if(original.channels() == 3)
+		{
+			type = BufferedImage.TYPE_3BYTE_BGR;
+		}
+		
+		BufferedImage image = new BufferedImage(original.width(), original.height(), type);
+		byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+		
+		original.get(0, 0, data);
+		return image;
+	}
+}
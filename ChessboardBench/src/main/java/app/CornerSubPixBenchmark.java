@@ -0,0 +1,75 @@
+package app;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//Refining the 54 chessboard corners with the window half sizes worth considering, 11 is what the detector uses.
+//The refinement starts from the same findChessboardCorners estimate every call, so it does the same number of iterations.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CornerSubPixBenchmark {
+	
+	@Param({"640x480", "1920x1080", "3840x2160"})
+	public String resolution;
+	
+	@Param({"5", "11", "21"})
+	public int window;
+	
+	private Mat gray;
+	private MatOfPoint2f estimate;
+	private MatOfPoint2f corners;
+	private Size windowSize;
+	private Size zeroZone;
+	private TermCriteria term;
+	
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		BenchmarkFrames.loadNative();
+		
+		gray = BenchmarkFrames.gray(BenchmarkFrames.chessboard(BenchmarkFrames.parse(resolution)));
+		
+		estimate = new MatOfPoint2f();
+		
+		if(!Calib3d.findChessboardCorners(gray, BenchmarkFrames.CHESSBOARD, estimate, Calib3d.CALIB_CB_ADAPTIVE_THRESH + Calib3d.CALIB_CB_NORMALIZE_IMAGE))
+		{
+			throw new IllegalStateException("No chessboard in the synthetic " + resolution + " frame");
+		}
+		
+		corners = new MatOfPoint2f();
+		windowSize = new Size(window, window);
+		zeroZone = new Size(-1, -1);
+		term = new TermCriteria(TermCriteria.COUNT + TermCriteria.EPS, 30, 0.01);
+	}
+	
+	@Benchmark
+	public MatOfPoint2f cornerSubPix()
+	{
+		estimate.copyTo(corners);
+		Imgproc.cornerSubPix(gray, corners, windowSize, zeroZone, term);
+		
+		return corners;
+	}
+}
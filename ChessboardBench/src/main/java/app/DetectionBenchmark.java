@@ -0,0 +1,87 @@
+package app;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//Finding the board once per frame: findChessboardCorners with the flags the application uses, the same with
+//CALIB_CB_FAST_CHECK, the application's pyramid detector, and findCirclesGrid on the asymmetric grid of Controller2.
+//Every benchmark returns whether the target was found so a run that silently fails to detect stands out.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DetectionBenchmark {
+	
+	@Param({"640x480", "1920x1080", "3840x2160"})
+	public String resolution;
+	
+	private Mat chessboardGray;
+	private Mat circlesGray;
+	private MatOfPoint2f corners;
+	private ChessboardDetector pyramid;
+	
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		BenchmarkFrames.loadNative();
+		
+		chessboardGray = BenchmarkFrames.gray(BenchmarkFrames.chessboard(BenchmarkFrames.parse(resolution)));
+		circlesGray = BenchmarkFrames.gray(BenchmarkFrames.circles(BenchmarkFrames.parse(resolution)));
+		corners = new MatOfPoint2f();
+		
+		//Tracking would turn every call after the first into an optical flow update
+		System.setProperty(ChessboardDetector.TRACKING_PROPERTY, "false");
+		pyramid = new ChessboardDetector(BenchmarkFrames.CHESSBOARD, ChessboardDetector.Mode.PYRAMID, 640);
+	}
+	
+	@Benchmark
+	public boolean findChessboardCorners()
+	{
+		return Calib3d.findChessboardCorners(chessboardGray, BenchmarkFrames.CHESSBOARD, corners,
+				Calib3d.CALIB_CB_ADAPTIVE_THRESH + Calib3d.CALIB_CB_NORMALIZE_IMAGE);
+	}
+	
+	@Benchmark
+	public boolean findChessboardCornersFastCheck()
+	{
+		return Calib3d.findChessboardCorners(chessboardGray, BenchmarkFrames.CHESSBOARD, corners,
+				Calib3d.CALIB_CB_ADAPTIVE_THRESH + Calib3d.CALIB_CB_NORMALIZE_IMAGE + Calib3d.CALIB_CB_FAST_CHECK);
+	}
+	
+	//Includes cornerSubPix on the full frame, like the detect stage
+	@Benchmark
+	public boolean pyramidDetector()
+	{
+		return pyramid.detect(chessboardGray, corners);
+	}
+	
+	@Benchmark
+	public boolean findCirclesGrid()
+	{
+		return Calib3d.findCirclesGrid(circlesGray, BenchmarkFrames.CIRCLES, corners,
+				Calib3d.CALIB_CB_ASYMMETRIC_GRID + Calib3d.CALIB_CB_CLUSTERING);
+	}
+	
+	@Benchmark
+	public boolean findCirclesGridNoClustering()
+	{
+		return Calib3d.findCirclesGrid(circlesGray, BenchmarkFrames.CIRCLES, corners, Calib3d.CALIB_CB_ASYMMETRIC_GRID);
+	}
+}
@@ -0,0 +1,105 @@
+package app;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//Correcting one colour frame: remap with float maps against the fixed point maps the rig uses, undistort (which builds
+//its maps again on every call) against remapFixedMaps, which is the same correction with the maps cached, and
+//RegistrationMap with a homography folded in.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RemapBenchmark {
+	
+	@Param({"640x480", "1920x1080", "3840x2160"})
+	public String resolution;
+	
+	private Mat frame;
+	private Mat corrected;
+	private Mat intrinsic;
+	private Mat distortion;
+	
+	private Mat floatX;
+	private Mat floatY;
+	private Mat fixedXY;
+	private Mat fixedInterpolation;
+	
+	private RegistrationMap registration;
+	
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		BenchmarkFrames.loadNative();
+		
+		Size size = BenchmarkFrames.parse(resolution);
+		frame = BenchmarkFrames.chessboard(size);
+		corrected = new Mat();
+		intrinsic = BenchmarkFrames.intrinsic(size);
+		distortion = BenchmarkFrames.distortion();
+		
+		floatX = new Mat();
+		floatY = new Mat();
+		Imgproc.initUndistortRectifyMap(intrinsic, distortion, new Mat(), intrinsic, size, CvType.CV_32FC1, floatX, floatY);
+		
+		fixedXY = new Mat();
+		fixedInterpolation = new Mat();
+		Imgproc.convertMaps(floatX, floatY, fixedXY, fixedInterpolation, CvType.CV_16SC2, false);
+		
+		//A small shift and rotation, the kind of registration Controller2 does between its cameras
+		Mat homography = Mat.eye(3, 3, CvType.CV_64F);
+		homography.put(0, 0, 0.998, -0.035, size.width * 0.01);
+		homography.put(1, 0, 0.035, 0.998, -size.height * 0.01);
+		registration = new RegistrationMap(intrinsic, distortion, homography, size);
+	}
+	
+	@Benchmark
+	public Mat remapFloatMaps()
+	{
+		Imgproc.remap(frame, corrected, floatX, floatY, Imgproc.INTER_LINEAR);
+		
+		return corrected;
+	}
+	
+	@Benchmark
+	public Mat remapFixedMaps()
+	{
+		Imgproc.remap(frame, corrected, fixedXY, fixedInterpolation, Imgproc.INTER_LINEAR);
+		
+		return corrected;
+	}
+	
+	@Benchmark
+	public Mat undistort()
+	{
+		Imgproc.undistort(frame, corrected, intrinsic, distortion);
+		
+		return corrected;
+	}
+	
+	@Benchmark
+	public Mat registrationMap()
+	{
+		registration.apply(frame, corrected);
+		
+		return corrected;
+	}
+}
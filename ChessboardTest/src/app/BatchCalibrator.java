@@ -0,0 +1,407 @@
+package app;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+
+//Calibrates a rig offline from a directory of recorded sets, left_0001.png / right_0001.png ... (cam2_0001.png for a
+//third camera), as SyntheticTargets or any recorder writes them, without JavaFX:
+//  java app.BatchCalibrator <directory> [output.cbc]
+//The target is found in every set on every core at once, then the views go through the same solve as the UI
+//(CameraRig.calibrateAgainstReference, CalibrationAnalysis outlier rejection) and the rig is saved with CalibrationStore,
+//which the UI loads on start. Sets with a truth_0001.txt next to them are also scored against the ground truth.
+//  -Dchessboard.batch.target=chessboard|circles
+//  -Dchessboard.cameras=2
+//  -Dchessboard.batch.maxViews=100     above this the solved views are spread evenly over all detected sets
+//  -Dchessboard.batch.threads=<cores>
+//  -Dchessboard.bootstrap=200          resamples for the 95% intervals of the intrinsics, 0 for none
+public class BatchCalibrator {
+	
+	public static final String TARGET_PROPERTY = "chessboard.batch.target";
+	public static final String MAX_VIEWS_PROPERTY = "chessboard.batch.maxViews";
+	public static final String THREADS_PROPERTY = "chessboard.batch.threads";
+	
+	private static final int MIN_VIEWS = 5;
+	
+	private CalibrationTarget target;
+	private int cameras;
+	private int maxViews;
+	private int threads;
+	private int resamples;
+	
+	private Size frameSize;
+	private List<String> sets;
+	private MatOfPoint2f[][] detections;
+	
+	public BatchCalibrator(CalibrationTarget target, int cameras, int maxViews, int threads, int resamples) {
+		this.target = target;
+		this.cameras = cameras;
+		this.maxViews = Math.max(MIN_VIEWS, maxViews);
+		this.threads = Math.max(1, threads);
+		this.resamples = resamples;
+		
+		sets = new ArrayList<>();
+	}
+	
+	public static BatchCalibrator fromProperties()
+	{
+		return new BatchCalibrator(CalibrationTarget.fromProperty(TARGET_PROPERTY),
+				CameraRig.camerasFromProperty(),
+				Integer.getInteger(MAX_VIEWS_PROPERTY, 100),
+				Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()),
+				Integer.getInteger("chessboard.bootstrap", CalibrationAnalysis.INTERVAL_RESAMPLES));
+	}
+	
+	public boolean run(File directory, File output) throws Exception
+	{
+		if(!findSets(directory))
+		{
+			return false;
+		}
+		
+		long start = System.nanoTime();
+		detectAll(directory);
+		long detected = System.nanoTime();
+		
+		List<Integer> found = new ArrayList<>();
+		
+		for(int i = 0; i < sets.size(); i++)
+		{
+			if(detections[i] != null)
+			{
+				found.add(i);
+			}
+		}
+		
+		double seconds = (detected - start) / 1e9;
+		System.out.println(String.format("Found the %s in %d of %d sets in %.2f s, %.1f sets/s on %d threads",
+				target.name().toLowerCase(), found.size(), sets.size(), seconds, sets.size() / seconds, threads));
+		
+		scoreAgainstTruth(directory, found);
+		
+		if(found.size() < MIN_VIEWS)
+		{
+			System.out.println("At least " + MIN_VIEWS + " views are needed to calibrate");
+			return false;
+		}
+		
+		List<Integer> views = spread(found);
+		
+		CameraRig rig = rig(directory);
+		MatOfPoint3f board = target.objectPoints();
+		List<Mat> objectPoints = new ArrayList<>();
+		List<List<Mat>> imagePoints = new ArrayList<>();
+		
+		for(int camera = 0; camera < cameras; camera++)
+		{
+			imagePoints.add(new ArrayList<>());
+		}
+		
+		for(int view : views)
+		{
+			objectPoints.add(board);
+			
+			for(int camera = 0; camera < cameras; camera++)
+			{
+				imagePoints.get(camera).add(detections[view][camera]);
+			}
+		}
+		
+		CalibrationService service = new CalibrationService(threads);
+		
+		try
+		{
+			CalibrationJob<CalibrationAnalysis> job = service.submit("batch-" + views.size(),
+					j -> CalibrationAnalysis.solve(rig, objectPoints, imagePoints, MIN_VIEWS, resamples, service, j),
+					new CalibrationListener<CalibrationAnalysis>() {
+						@Override
+						public void progress(double fraction, String message)
+						{
+							System.out.println(message);
+						}
+					});
+			
+			CalibrationAnalysis analysis = job.get();
+			long solved = System.nanoTime();
+			
+			System.out.print(analysis.report());
+			System.out.println(String.format("Calibrated from %d views in %.2f s", views.size(), (solved - detected) / 1e9));
+			
+			compareWithTruth(directory, found, analysis.getPairs());
+			
+			CalibrationStore.save(output, rig);
+			System.out.println("Saved " + output);
+		}
+		finally
+		{
+			service.shutdown();
+			rig.shutdown();
+		}
+		
+		return true;
+	}
+	
+	//Sets are named by the reference camera's files, a set counts when every camera has an image with the same suffix
+	private boolean findSets(File directory)
+	{
+		String prefix = FrameSources.prefixFor(0);
+		String[] names = directory.list((dir, name) -> name.startsWith(prefix) && ImageDirectoryFrameSource.isImage(name));
+		
+		if(names == null || names.length == 0)
+		{
+			System.out.println("No images starting with \"" + prefix + "\" in " + directory);
+			return false;
+		}
+		
+		Arrays.sort(names);
+		sets.clear();
+		
+		for(String name : names)
+		{
+			String suffix = name.substring(prefix.length());
+			boolean complete = true;
+			
+			for(int camera = 1; camera < cameras; camera++)
+			{
+				complete &= new File(directory, FrameSources.prefixFor(camera) + suffix).isFile();
+			}
+			
+			if(complete)
+			{
+				sets.add(suffix);
+			}
+		}
+		
+		Mat first = Imgcodecs.imread(image(directory, 0, 0).getPath(), Imgcodecs.IMREAD_GRAYSCALE);
+		
+		if(sets.isEmpty() || first.empty())
+		{
+			System.out.println("No complete sets of " + cameras + " cameras in " + directory);
+			return false;
+		}
+		
+		frameSize = first.size();
+		first.release();
+		
+		return true;
+	}
+	
+	//One task per set, so a set's images are decoded and searched on the same core. OpenCV's own threading is
+	//left alone, findChessboardCorners and findCirclesGrid barely use it.
+	private void detectAll(File directory) throws Exception
+	{
+		detections = new MatOfPoint2f[sets.size()][];
+		
+		ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "batch-detect");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		try
+		{
+			List<Future<MatOfPoint2f[]>> results = new ArrayList<>();
+			
+			for(int i = 0; i < sets.size(); i++)
+			{
+				int set = i;
+				results.add(workers.submit(() -> detect(directory, set)));
+			}
+			
+			for(int i = 0; i < results.size(); i++)
+			{
+				detections[i] = results.get(i).get();
+				
+				if(results.size() >= 100 && (i + 1) % (results.size() / 10) == 0)
+				{
+					System.out.println("Detected " + (i + 1) + " of " + results.size() + " sets");
+				}
+			}
+		}
+		finally
+		{
+			workers.shutdownNow();
+		}
+	}
+	
+	//Null as soon as one camera misses the target, the other images of the set are not even read
+	private MatOfPoint2f[] detect(File directory, int set)
+	{
+		MatOfPoint2f[] points = new MatOfPoint2f[cameras];
+		
+		for(int camera = 0; camera < cameras; camera++)
+		{
+			File file = image(directory, set, camera);
+			Mat gray = Imgcodecs.imread(file.getPath(), Imgcodecs.IMREAD_GRAYSCALE);
+			
+			try
+			{
+				if(gray.empty() || gray.width() != frameSize.width || gray.height() != frameSize.height)
+				{
+					System.out.println("Skipping " + file + ", it is unreadable or not " + (int) frameSize.width + "x" + (int) frameSize.height);
+					return null;
+				}
+				
+				points[camera] = new MatOfPoint2f();
+				
+				if(!target.detect(gray, points[camera]))
+				{
+					return null;
+				}
+			}
+			finally
+			{
+				//Thousands of 4K frames would otherwise wait for the garbage collector to give back their native memory
+				gray.release();
+			}
+		}
+		
+		return points;
+	}
+	
+	//Evenly over the detected sets, so a long recording is represented from start to end
+	private List<Integer> spread(List<Integer> found)
+	{
+		if(found.size() <= maxViews)
+		{
+			return found;
+		}
+		
+		List<Integer> views = new ArrayList<>();
+		
+		for(int i = 0; i < maxViews; i++)
+		{
+			views.add(found.get((int) ((long) i * found.size() / maxViews)));
+		}
+		
+		return views;
+	}
+	
+	private CameraRig rig(File directory)
+	{
+		List<CameraChannel> channels = new ArrayList<>();
+		
+		for(int camera = 0; camera < cameras; camera++)
+		{
+			CameraChannel channel = new CameraChannel(camera, new ImageDirectoryFrameSource(directory, FrameSources.prefixFor(camera), false),
+					target.getPatternSize());
+			channel.setFrameSize(frameSize);
+			channels.add(channel);
+		}
+		
+		return new CameraRig(channels, 0, target.getPatternSize());
+	}
+	
+	private void scoreAgainstTruth(File directory, List<Integer> found) throws IOException
+	{
+		double sum = 0;
+		double worst = 0;
+		int count = 0;
+		int skipped = 0;
+		
+		for(int set : found)
+		{
+			GroundTruth truth = truth(directory, set);
+			
+			if(truth == null)
+			{
+				continue;
+			}
+			
+			//Truth rendered for the other target has other points, there is nothing to compare
+			if(!target.name().equalsIgnoreCase(truth.getTarget()))
+			{
+				skipped += Math.min(cameras, truth.getCameras());
+				continue;
+			}
+			
+			for(int camera = 0; camera < Math.min(cameras, truth.getCameras()); camera++)
+			{
+				double error = truth.error(detections[set][camera], camera);
+				
+				//NaN when the point counts differ, one such image would make the whole summary NaN
+				if(!Double.isFinite(error))
+				{
+					skipped++;
+					continue;
+				}
+				
+				sum += error;
+				worst = Math.max(worst, error);
+				count++;
+			}
+		}
+		
+		if(count > 0)
+		{
+			System.out.println(String.format("Detection against ground truth: mean %.4f px, worst %.4f px over %d images", sum / count, worst, count));
+		}
+		
+		if(skipped > 0)
+		{
+			System.out.println(skipped + " images not scored, their truth is for another target or other points");
+		}
+	}
+	
+	//Focal length and baseline of the first pair next to the values the images were rendered with
+	private void compareWithTruth(File directory, List<Integer> found, List<StereoCalibration> pairs) throws IOException
+	{
+		GroundTruth truth = found.isEmpty() ? null : truth(directory, found.get(0));
+		
+		if(truth == null || pairs.isEmpty())
+		{
+			return;
+		}
+		
+		StereoCalibration pair = pairs.get(0);
+		
+		System.out.println(String.format("Ground truth: fx %.3f (solved %.3f), cx %.3f (solved %.3f), baseline %.4f (solved %.4f)",
+				truth.getIntrinsic(0).get(0, 0)[0], pair.getIntrinsic1().get(0, 0)[0],
+				truth.getIntrinsic(0).get(0, 2)[0], pair.getIntrinsic1().get(0, 2)[0],
+				Core.norm(truth.getTranslation()), Core.norm(pair.getTranslation())));
+	}
+	
+	private GroundTruth truth(File directory, int set) throws IOException
+	{
+		String suffix = sets.get(set);
+		File file = new File(directory, GroundTruth.PREFIX + suffix.substring(0, suffix.lastIndexOf('.')) + ".txt");
+		
+		return file.isFile() ? GroundTruth.read(file) : null;
+	}
+	
+	private File image(File directory, int set, int camera)
+	{
+		return new File(directory, FrameSources.prefixFor(camera) + sets.get(set));
+	}
+	
+	public static void main(String[] args) throws Exception
+	{
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+		
+		if(args.length < 1)
+		{
+			System.out.println("Usage: BatchCalibrator <directory> [output.cbc]");
+			return;
+		}
+		
+		File directory = new File(args[0]);
+		File output = args.length > 1 ? new File(args[1]) : new File(directory, "calibration.cbc");
+		
+		if(!fromProperties().run(directory, output))
+		{
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,419 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.Size;
+
+//Looks at a finished rig calibration view by view. Every view gets its reprojection error in every camera, views far
+//above the rest (a blurred or misdetected snapshot) are marked as outliers, and bootstrap resampling of the views gives
+//95% intervals for the intrinsics. All of it is spread over the calibration service's solver threads.
+public class CalibrationAnalysis {
+	
+	//Reported for every camera: fx, fy, cx, cy, k1, k2
+	public static final String[] PARAMETERS = {"fx", "fy", "cx", "cy", "k1", "k2"};
+	
+	//From this many resamples on the intervals are the 2.5th and 97.5th percentile. Below, those are about the smallest
+	//and largest value and cover far less than 95%, so the interval is mean +- t * sd of the resamples instead.
+	public static final int INTERVAL_RESAMPLES = 200;
+	
+	//Two-sided 95% quantiles of Student's t for 1 to 30 degrees of freedom
+	private static final double[] T_975 = {12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228, 
+			2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086, 2.080, 2.074, 2.069, 2.064, 2.060, 
+			2.056, 2.052, 2.048, 2.045, 2.042};
+	
+	private double[][] viewErrors;
+	private double[] worstErrors;
+	private double threshold;
+	private List<Integer> inliers;
+	private List<Integer> outliers;
+	
+	private double[][] lower;
+	private double[][] upper;
+	private int resamples;
+	
+	private List<StereoCalibration> pairs;
+	
+	private CalibrationAnalysis(int cameras, int views) {
+		viewErrors = new double[cameras][views];
+		worstErrors = new double[views];
+		inliers = new ArrayList<>();
+		outliers = new ArrayList<>();
+		resamples = 0;
+	}
+	
+	//Solves, drops the views that stand out and solves again without them, then bootstraps the intervals when there is
+	//more than one resample. The channels end up with the final solution, the view errors are those of the first solve.
+	public static CalibrationAnalysis solve(CameraRig rig, List<Mat> views, List<List<Mat>> points, int minViews, int resamples, 
+			CalibrationService service, CalibrationJob<?> job) throws InterruptedException, ExecutionException
+	{
+		List<StereoCalibration> pairs = rig.calibrateAgainstReference(views, points, service, job);
+		
+		job.progress(0.96, "Per-view errors");
+		CalibrationAnalysis result = analyze(rig, views, points, service, job);
+		
+		if(!result.getOutliers().isEmpty() && result.getInliers().size() >= minViews)
+		{
+			views = result.select(views);
+			points = result.selectPoints(points);
+			
+			job.progress(0, "Solving without views " + result.getOutliers());
+			pairs = rig.calibrateAgainstReference(views, points, service, job);
+		}
+		
+		if(resamples > 1)
+		{
+			job.progress(0.97, "Bootstrap of " + resamples + " resamples");
+			result.bootstrap(rig, views, points, resamples, service, job);
+		}
+		
+		result.pairs = pairs;
+		
+		return result;
+	}
+	
+	//Per view errors with the intrinsics the rig's channels currently have
+	public static CalibrationAnalysis analyze(CameraRig rig, List<Mat> objectPoints, List<List<Mat>> imagePoints, 
+			CalibrationService service, CalibrationJob<?> job) throws InterruptedException, ExecutionException
+	{
+		int views = objectPoints.size();
+		CalibrationAnalysis analysis = new CalibrationAnalysis(rig.size(), views);
+		
+		List<Callable<double[]>> cameras = new ArrayList<>();
+		
+		for(int i = 0; i < rig.size(); i++)
+		{
+			Mat intrinsic = rig.getChannel(i).getIntrinsic().clone();
+			//As a column: the Java projectPoints silently drops a 1x5 row of coefficients and projects without distortion
+			Mat coefficients = rig.getChannel(i).getDistortion();
+			MatOfDouble distortion = new MatOfDouble(coefficients.reshape(1, (int) coefficients.total()).clone());
+			List<Mat> points = imagePoints.get(i);
+			
+			for(int view = 0; view < views; view++)
+			{
+				Mat object = objectPoints.get(view);
+				Mat image = points.get(view);
+				
+				cameras.add(() -> new double[] {viewError(object, image, intrinsic, distortion)});
+			}
+		}
+		
+		List<double[]> errors = service.solveAll(job, cameras);
+		
+		for(int i = 0; i < rig.size(); i++)
+		{
+			for(int view = 0; view < views; view++)
+			{
+				double error = errors.get(i * views + view)[0];
+				
+				analysis.viewErrors[i][view] = error;
+				analysis.worstErrors[view] = Math.max(analysis.worstErrors[view], error);
+			}
+		}
+		
+		analysis.findOutliers();
+		
+		return analysis;
+	}
+	
+	//RMS distance between the detected corners and the board projected with the pose solvePnP finds for this view
+	private static double viewError(Mat objectPoints, Mat imagePoints, Mat intrinsic, MatOfDouble distortion)
+	{
+		MatOfPoint3f object = new MatOfPoint3f(objectPoints);
+		MatOfPoint2f image = new MatOfPoint2f(imagePoints);
+		MatOfPoint2f projected = new MatOfPoint2f();
+		Mat rotation = new Mat();
+		Mat translation = new Mat();
+		
+		Calib3d.solvePnP(object, image, intrinsic, distortion, rotation, translation);
+		Calib3d.projectPoints(object, rotation, translation, intrinsic, distortion, projected);
+		
+		return Core.norm(image, projected, Core.NORM_L2) / Math.sqrt(image.total());
+	}
+	
+	//Robust cut: three (scaled) median absolute deviations above the median, but never below twice the median so
+	//a set of uniformly good views does not lose its slightly worse half
+	private void findOutliers()
+	{
+		double median = median(worstErrors);
+		double[] deviations = new double[worstErrors.length];
+		
+		for(int i = 0; i < worstErrors.length; i++)
+		{
+			deviations[i] = Math.abs(worstErrors[i] - median);
+		}
+		
+		threshold = Math.max(median + 3 * 1.4826 * median(deviations), 2 * median);
+		
+		for(int i = 0; i < worstErrors.length; i++)
+		{
+			if(worstErrors[i] > threshold)
+			{
+				outliers.add(i);
+			}
+			else
+			{
+				inliers.add(i);
+			}
+		}
+	}
+	
+	private static double median(double[] values)
+	{
+		double[] sorted = values.clone();
+		Arrays.sort(sorted);
+		
+		int middle = sorted.length / 2;
+		
+		return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+	}
+	
+	//The entries of a per view list that are not outliers
+	public <T> List<T> select(List<T> views)
+	{
+		List<T> result = new ArrayList<>();
+		
+		for(int view : inliers)
+		{
+			result.add(views.get(view));
+		}
+		
+		return result;
+	}
+	
+	public List<List<Mat>> selectPoints(List<List<Mat>> imagePoints)
+	{
+		List<List<Mat>> result = new ArrayList<>();
+		
+		for(List<Mat> points : imagePoints)
+		{
+			result.add(select(points));
+		}
+		
+		return result;
+	}
+	
+	//Re-solves the rig on resampled view sets, one resample per solver task, warm-started from the current intrinsics.
+	//Only the parameters are solved, no rectification maps.
+	public void bootstrap(CameraRig rig, List<Mat> objectPoints, List<List<Mat>> imagePoints, int count, 
+			CalibrationService service, CalibrationJob<?> job) throws InterruptedException, ExecutionException
+	{
+		int reference = rig.getReference().getIndex();
+		Size size = rig.getReference().getFrameSize();
+		int views = objectPoints.size();
+		
+		List<Callable<double[][]>> samples = new ArrayList<>();
+		
+		for(int sample = 0; sample < count; sample++)
+		{
+			Random random = new Random(sample);
+			int[] picks = new int[views];
+			
+			for(int i = 0; i < views; i++)
+			{
+				picks[i] = random.nextInt(views);
+			}
+			
+			samples.add(() -> resample(rig, reference, size, picks, objectPoints, imagePoints));
+		}
+		
+		List<double[][]> results = service.solveAll(job, samples);
+		
+		lower = new double[rig.size()][PARAMETERS.length];
+		upper = new double[rig.size()][PARAMETERS.length];
+		resamples = results.size();
+		
+		for(int camera = 0; camera < rig.size(); camera++)
+		{
+			for(int parameter = 0; parameter < PARAMETERS.length; parameter++)
+			{
+				double[] values = new double[resamples];
+				
+				for(int sample = 0; sample < resamples; sample++)
+				{
+					values[sample] = results.get(sample)[camera][parameter];
+				}
+				
+				Arrays.sort(values);
+				
+				if(isPercentileInterval())
+				{
+					lower[camera][parameter] = values[(int)Math.floor(0.025 * (resamples - 1))];
+					upper[camera][parameter] = values[(int)Math.ceil(0.975 * (resamples - 1))];
+				}
+				else
+				{
+					double mean = 0;
+					double squares = 0;
+					
+					for(double value : values)
+					{
+						mean += value;
+					}
+					mean /= resamples;
+					
+					for(double value : values)
+					{
+						squares += (value - mean) * (value - mean);
+					}
+					
+					double margin = t975(resamples - 1) * Math.sqrt(squares / (resamples - 1));
+					
+					lower[camera][parameter] = mean - margin;
+					upper[camera][parameter] = mean + margin;
+				}
+			}
+		}
+	}
+	
+	//Cornish-Fisher expansion past the table, within 0.001 of the exact quantile there
+	private static double t975(int degrees)
+	{
+		if(degrees <= T_975.length)
+		{
+			return T_975[degrees - 1];
+		}
+		
+		double z = 1.959964;
+		double z3 = z * z * z;
+		double z5 = z3 * z * z;
+		
+		return z + (z3 + z) / (4.0 * degrees) + (5 * z5 + 16 * z3 + 3 * z) / (96.0 * degrees * degrees);
+	}
+	
+	private static double[][] resample(CameraRig rig, int reference, Size size, int[] picks, List<Mat> objectPoints, List<List<Mat>> imagePoints)
+	{
+		List<Mat> objects = new ArrayList<>();
+		
+		for(int pick : picks)
+		{
+			objects.add(objectPoints.get(pick));
+		}
+		
+		List<Mat> basePoints = pick(imagePoints.get(reference), picks);
+		double[][] parameters = new double[rig.size()][];
+		
+		for(int i = 0; i < rig.size(); i++)
+		{
+			if(i == reference)
+			{
+				continue;
+			}
+			
+			StereoCalibration pair = StereoCalibration.calibrate(objects, basePoints, pick(imagePoints.get(i), picks), size, 
+					rig.getReference().getIntrinsic().clone(), rig.getReference().getDistortion().clone(), 
+					rig.getChannel(i).getIntrinsic().clone(), rig.getChannel(i).getDistortion().clone(), false);
+			
+			if(parameters[reference] == null)
+			{
+				parameters[reference] = parameters(pair.getIntrinsic1(), pair.getDistortion1());
+			}
+			parameters[i] = parameters(pair.getIntrinsic2(), pair.getDistortion2());
+		}
+		
+		return parameters;
+	}
+	
+	private static List<Mat> pick(List<Mat> views, int[] picks)
+	{
+		List<Mat> result = new ArrayList<>();
+		
+		for(int pick : picks)
+		{
+			result.add(views.get(pick));
+		}
+		
+		return result;
+	}
+	
+	private static double[] parameters(Mat intrinsic, Mat distortion)
+	{
+		return new double[] {intrinsic.get(0, 0)[0], intrinsic.get(1, 1)[0], intrinsic.get(0, 2)[0], intrinsic.get(1, 2)[0], 
+				distortion.get(0, 0)[0], distortion.total() > 1 ? distortion.get(0, 1)[0] : 0};
+	}
+	
+	public String report()
+	{
+		StringBuilder report = new StringBuilder();
+		
+		report.append(String.format("Views %d, outliers %s (above %.3f px)%n", worstErrors.length, outliers, threshold));
+		
+		for(int camera = 0; camera < viewErrors.length; camera++)
+		{
+			report.append("Camera ").append(camera).append(" view errors:");
+			
+			for(double error : viewErrors[camera])
+			{
+				report.append(String.format(" %.3f", error));
+			}
+			report.append(System.lineSeparator());
+			
+			if(resamples > 0)
+			{
+				report.append("Camera ").append(camera).append(" 95% intervals (").append(resamples)
+						.append(isPercentileInterval() ? " resamples, percentiles):" : " resamples, mean +- t sd):");
+				
+				for(int parameter = 0; parameter < PARAMETERS.length; parameter++)
+				{
+					report.append(String.format(" %s [%.4f, %.4f]", PARAMETERS[parameter], lower[camera][parameter], upper[camera][parameter]));
+				}
+				report.append(System.lineSeparator());
+			}
+		}
+		
+		return report.toString();
+	}
+	
+	//The pairs of the final solve, null for an analysis that did not solve
+	public List<StereoCalibration> getPairs()
+	{
+		return pairs;
+	}
+	
+	public double getViewError(int camera, int view)
+	{
+		return viewErrors[camera][view];
+	}
+	
+	public double getThreshold()
+	{
+		return threshold;
+	}
+	
+	public List<Integer> getInliers()
+	{
+		return inliers;
+	}
+	
+	public List<Integer> getOutliers()
+	{
+		return outliers;
+	}
+	
+	public int getResamples()
+	{
+		return resamples;
+	}
+	
+	//True when the intervals are bootstrap percentiles, false when they come from the t distribution of few resamples
+	public boolean isPercentileInterval()
+	{
+		return resamples >= INTERVAL_RESAMPLES;
+	}
+	
+	//Index 0 is the lower, 1 the upper end of the 95% interval
+	public double[] getInterval(int camera, int parameter)
+	{
+		return new double[] {lower[camera][parameter], upper[camera][parameter]};
+	}
+}
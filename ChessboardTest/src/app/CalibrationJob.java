@@ -0,0 +1,108 @@
+package app;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+//A calibration running on the CalibrationService. OpenCV calls cannot be interrupted, so cancel() takes effect at the
+//task's next checkCancelled() and whatever was computed up to then is thrown away.
+public class CalibrationJob<T> {
+	
+	private String name;
+	private CalibrationListener<T> listener;
+	private Future<T> future;
+	
+	private volatile boolean cancelled;
+	private volatile double progress;
+	private volatile String message;
+	
+	public CalibrationJob(String name, CalibrationListener<T> listener) {
+		this.name = name;
+		this.listener = listener;
+		
+		cancelled = false;
+		progress = 0;
+		message = "";
+	}
+	
+	void setFuture(Future<T> future)
+	{
+		this.future = future;
+	}
+	
+	T run(CalibrationTask<T> task) throws Exception
+	{
+		try
+		{
+			checkCancelled();
+			T result = task.run(this);
+			checkCancelled();
+			
+			progress(1, "Done");
+			listener.finished(result);
+			
+			return result;
+		}
+		catch(CancellationException | InterruptedException e)
+		{
+			listener.cancelled();
+			throw e;
+		}
+		catch(Exception | Error e)
+		{
+			listener.failed(e);
+			throw e;
+		}
+	}
+	
+	public void progress(double fraction, String message)
+	{
+		this.progress = fraction;
+		this.message = message;
+		
+		listener.progress(fraction, message);
+	}
+	
+	public void checkCancelled()
+	{
+		if(cancelled)
+		{
+			throw new CancellationException(name + " cancelled");
+		}
+	}
+	
+	public void cancel()
+	{
+		cancelled = true;
+	}
+	
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+	
+	public boolean isDone()
+	{
+		return future != null && future.isDone();
+	}
+	
+	public T get() throws InterruptedException, ExecutionException
+	{
+		return future.get();
+	}
+	
+	public double getProgress()
+	{
+		return progress;
+	}
+	
+	public String getMessage()
+	{
+		return message;
+	}
+	
+	public String getName()
+	{
+		return name;
+	}
+}
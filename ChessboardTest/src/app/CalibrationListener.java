@@ -0,0 +1,23 @@
+package app;
+
+//Called on the calibration thread, UI listeners have to hop over to the FX thread themselves
+public interface CalibrationListener<T> {
+	
+	default void progress(double fraction, String message)
+	{
+	}
+	
+	default void finished(T result)
+	{
+	}
+	
+	default void failed(Throwable error)
+	{
+		System.err.println("Calibration failed: " + error);
+	}
+	
+	default void cancelled()
+	{
+		System.out.println("Calibration cancelled");
+	}
+}
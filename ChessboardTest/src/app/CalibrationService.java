@@ -0,0 +1,98 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Runs calibrations away from the JavaFX thread and the frame pipeline. Jobs run one at a time on their own thread,
+//and the independent solves inside a job (one per camera or camera pair) are spread over the solver threads.
+public class CalibrationService {
+	
+	private ExecutorService jobs;
+	private ExecutorService solvers;
+	
+	public CalibrationService() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	public CalibrationService(int solverThreads) {
+		jobs = Executors.newSingleThreadExecutor(r -> daemon(r, "calibration"));
+		
+		AtomicInteger count = new AtomicInteger();
+		solvers = Executors.newFixedThreadPool(Math.max(1, solverThreads), r -> daemon(r, "calibration-solver-" + count.getAndIncrement()));
+	}
+	
+	private static Thread daemon(Runnable work, String name)
+	{
+		Thread thread = new Thread(work, name);
+		thread.setDaemon(true);
+		thread.setPriority(Thread.NORM_PRIORITY - 1);
+		return thread;
+	}
+	
+	public <T> CalibrationJob<T> submit(String name, CalibrationTask<T> task, CalibrationListener<T> listener)
+	{
+		CalibrationJob<T> job = new CalibrationJob<>(name, listener);
+		job.setFuture(jobs.submit(() -> job.run(task)));
+		
+		return job;
+	}
+	
+	//Runs the solves side by side and returns their results in order. Stops waiting as soon as the job is cancelled.
+	public <T> List<T> solveAll(CalibrationJob<?> job, List<Callable<T>> solves) throws InterruptedException, ExecutionException
+	{
+		List<Future<T>> pending = new ArrayList<>();
+		
+		for(Callable<T> solve : solves)
+		{
+			pending.add(solvers.submit(solve));
+		}
+		
+		List<T> results = new ArrayList<>();
+		
+		try
+		{
+			for(Future<T> result : pending)
+			{
+				while(true)
+				{
+					job.checkCancelled();
+					
+					try
+					{
+						results.add(result.get(100, TimeUnit.MILLISECONDS));
+						break;
+					}
+					catch(TimeoutException e)
+					{
+						//Look at the cancel flag again
+					}
+				}
+			}
+		}
+		catch(CancellationException | InterruptedException e)
+		{
+			for(Future<T> result : pending)
+			{
+				result.cancel(true);
+			}
+			throw e;
+		}
+		
+		return results;
+	}
+	
+	public void shutdown()
+	{
+		jobs.shutdownNow();
+		solvers.shutdownNow();
+	}
+}
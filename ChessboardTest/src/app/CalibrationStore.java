@@ -0,0 +1,352 @@
+package app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+//Saves a calibrated rig, including the finished remap tables, so a restart goes straight to rectified output.
+//Everything is stored raw and read back through a memory mapping; the OpenCV 3.x Java API cannot put a Mat on top of
+//a ByteBuffer, so loading copies each Mat twice, from the mapping into one array shared by all of them and from there
+//into the Mat, instead of recomputing initUndistortRectifyMap.
+//
+//Layout (little endian):
+//  int magic, int version, int cameras, int width, int height, int reference
+//  per camera: intrinsic, distortion, rotation, translation, map1, map2, Q
+//  per Mat: int rows, int cols, int type, raw data
+public class CalibrationStore {
+	
+	private static final int MAGIC = 0x43424331; //CBC1
+	//Version 2 added Q, version 1 files still load without it
+	private static final int VERSION = 2;
+	private static final int HEADER = 24;
+	private static final int MAT_HEADER = 12;
+	
+	//Arrays Mat.put() copies from, grown to the largest Mat of their type and reused for all others. put() stops at the
+	//end of the Mat, the sizes are kept a multiple of 12 so they also divide by any channel count (1-4) as it requires.
+	private static class Scratch {
+		
+		private byte[] bytes = new byte[0];
+		private short[] shorts = new short[0];
+		private int[] ints = new int[0];
+		private float[] floats = new float[0];
+		private double[] doubles = new double[0];
+		
+		private static int size(int count)
+		{
+			return (count + 11) / 12 * 12;
+		}
+		
+		byte[] bytes(int count)
+		{
+			if(bytes.length < count)
+			{
+				bytes = new byte[size(count)];
+			}
+			
+			return bytes;
+		}
+		
+		short[] shorts(int count)
+		{
+			if(shorts.length < count)
+			{
+				shorts = new short[size(count)];
+			}
+			
+			return shorts;
+		}
+		
+		int[] ints(int count)
+		{
+			if(ints.length < count)
+			{
+				ints = new int[size(count)];
+			}
+			
+			return ints;
+		}
+		
+		float[] floats(int count)
+		{
+			if(floats.length < count)
+			{
+				floats = new float[size(count)];
+			}
+			
+			return floats;
+		}
+		
+		double[] doubles(int count)
+		{
+			if(doubles.length < count)
+			{
+				doubles = new double[size(count)];
+			}
+			
+			return doubles;
+		}
+	}
+	
+	private CalibrationStore() {
+	}
+	
+	//Written to a temporary file and moved over the old one, a crash never leaves half a calibration behind
+	public static void save(File path, CameraRig rig) throws IOException
+	{
+		List<Mat> mats = new ArrayList<>();
+		
+		for(int i = 0; i < rig.size(); i++)
+		{
+			CameraChannel channel = rig.getChannel(i);
+			
+			if(!channel.isCalibrated())
+			{
+				throw new IOException("Camera " + i + " is not calibrated");
+			}
+			
+			mats.add(channel.getIntrinsic());
+			mats.add(channel.getDistortion());
+			mats.add(channel.getRotation());
+			mats.add(channel.getTranslation());
+			mats.add(channel.getMap1());
+			mats.add(channel.getMap2());
+			mats.add(channel.getDisparityToDepth());
+		}
+		
+		long length = HEADER;
+		
+		for(int i = 0; i < mats.size(); i++)
+		{
+			//Only continuous Mats can be copied in one go
+			if(!mats.get(i).isContinuous())
+			{
+				mats.set(i, mats.get(i).clone());
+			}
+			
+			length += MAT_HEADER + mats.get(i).total() * mats.get(i).elemSize();
+		}
+		
+		Size size = rig.getReference().getFrameSize();
+		File temp = new File(path.getAbsoluteFile().getParentFile(), path.getName() + ".tmp");
+		
+		try(RandomAccessFile file = new RandomAccessFile(temp, "rw"))
+		{
+			file.setLength(length);
+			
+			MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(rig.size());
+			buffer.putInt((int)size.width);
+			buffer.putInt((int)size.height);
+			buffer.putInt(rig.getReference().getIndex());
+			
+			for(Mat mat : mats)
+			{
+				write(buffer, mat);
+			}
+			
+			buffer.force();
+		}
+		
+		Files.move(temp.toPath(), path.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	//Puts a stored calibration on the rig, false when there is none or it was made for other cameras. A damaged file is
+	//an IOException like an unreadable one.
+	public static boolean load(File path, CameraRig rig) throws IOException
+	{
+		if(!path.exists())
+		{
+			return false;
+		}
+		
+		try
+		{
+			return read(path, rig);
+		}
+		catch(RuntimeException e)
+		{
+			throw new IOException(path + " is damaged: " + e, e);
+		}
+	}
+	
+	private static boolean read(File path, CameraRig rig) throws IOException
+	{
+		try(RandomAccessFile file = new RandomAccessFile(path, "r"))
+		{
+			MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			
+			if(buffer.remaining() < HEADER || buffer.getInt() != MAGIC)
+			{
+				throw new IOException(path + " is not a calibration");
+			}
+			
+			int version = buffer.getInt();
+			
+			if(version < 1 || version > VERSION)
+			{
+				System.out.println(path + " is calibration version " + version + ", expected " + VERSION + ", recalibrate");
+				return false;
+			}
+			
+			int cameras = buffer.getInt();
+			Size size = new Size(buffer.getInt(), buffer.getInt());
+			int reference = buffer.getInt();
+			
+			if(cameras != rig.size() || reference != rig.getReference().getIndex())
+			{
+				System.out.println(path + " was made for " + cameras + " cameras, recalibrate");
+				return false;
+			}
+			
+			Scratch scratch = new Scratch();
+			
+			for(int i = 0; i < cameras; i++)
+			{
+				CameraChannel channel = rig.getChannel(i);
+				
+				channel.setIntrinsic(read(buffer, scratch));
+				channel.setDistortion(read(buffer, scratch));
+				channel.setPose(read(buffer, scratch), read(buffer, scratch));
+				channel.setFrameSize(size);
+				
+				Mat map1 = read(buffer, scratch);
+				Mat map2 = read(buffer, scratch);
+				channel.setDisparityToDepth(version >= 2 ? read(buffer, scratch) : new Mat());
+				channel.setRectification(map1, map2);
+			}
+		}
+		
+		return true;
+	}
+	
+	private static void write(ByteBuffer buffer, Mat mat)
+	{
+		buffer.putInt(mat.rows());
+		buffer.putInt(mat.cols());
+		buffer.putInt(mat.type());
+		
+		if(mat.empty())
+		{
+			return;
+		}
+		
+		int count = (int)(mat.total() * mat.channels());
+		
+		switch(CvType.depth(mat.type()))
+		{
+		case CvType.CV_8U:
+		case CvType.CV_8S:
+			byte[] bytes = new byte[count];
+			mat.get(0, 0, bytes);
+			buffer.put(bytes);
+			break;
+		case CvType.CV_16U:
+		case CvType.CV_16S:
+			short[] shorts = new short[count];
+			mat.get(0, 0, shorts);
+			buffer.asShortBuffer().put(shorts);
+			buffer.position(buffer.position() + count * Short.BYTES);
+			break;
+		case CvType.CV_32S:
+			int[] ints = new int[count];
+			mat.get(0, 0, ints);
+			buffer.asIntBuffer().put(ints);
+			buffer.position(buffer.position() + count * Integer.BYTES);
+			break;
+		case CvType.CV_32F:
+			float[] floats = new float[count];
+			mat.get(0, 0, floats);
+			buffer.asFloatBuffer().put(floats);
+			buffer.position(buffer.position() + count * Float.BYTES);
+			break;
+		default:
+			double[] doubles = new double[count];
+			mat.get(0, 0, doubles);
+			buffer.asDoubleBuffer().put(doubles);
+			buffer.position(buffer.position() + count * Double.BYTES);
+			break;
+		}
+	}
+	
+	private static Mat read(ByteBuffer buffer, Scratch scratch) throws IOException
+	{
+		if(buffer.remaining() < MAT_HEADER)
+		{
+			throw new IOException("Calibration is cut short");
+		}
+		
+		int rows = buffer.getInt();
+		int cols = buffer.getInt();
+		int type = buffer.getInt();
+		
+		//Checked before anything is allocated, a damaged header must not ask for gigabytes
+		if(rows < 0 || cols < 0 || (long)rows * cols * CvType.ELEM_SIZE(type) > buffer.remaining())
+		{
+			throw new IOException("Calibration is cut short or damaged, a " + rows + "x" + cols + " " + CvType.typeToString(type) + 
+					" with " + buffer.remaining() + " bytes left");
+		}
+		
+		Mat mat = new Mat(rows, cols, type);
+		
+		if(mat.empty())
+		{
+			return mat;
+		}
+		
+		int count = (int)(mat.total() * mat.channels());
+		
+		switch(CvType.depth(type))
+		{
+		case CvType.CV_8U:
+		case CvType.CV_8S:
+			byte[] bytes = scratch.bytes(count);
+			buffer.get(bytes, 0, count);
+			mat.put(0, 0, bytes);
+			break;
+		case CvType.CV_16U:
+		case CvType.CV_16S:
+			short[] shorts = scratch.shorts(count);
+			buffer.asShortBuffer().get(shorts, 0, count);
+			buffer.position(buffer.position() + count * Short.BYTES);
+			mat.put(0, 0, shorts);
+			break;
+		case CvType.CV_32S:
+			int[] ints = scratch.ints(count);
+			buffer.asIntBuffer().get(ints, 0, count);
+			buffer.position(buffer.position() + count * Integer.BYTES);
+			mat.put(0, 0, ints);
+			break;
+		case CvType.CV_32F:
+			float[] floats = scratch.floats(count);
+			buffer.asFloatBuffer().get(floats, 0, count);
+			buffer.position(buffer.position() + count * Float.BYTES);
+			mat.put(0, 0, floats);
+			break;
+		default:
+			double[] doubles = scratch.doubles(count);
+			buffer.asDoubleBuffer().get(doubles, 0, count);
+			buffer.position(buffer.position() + count * Double.BYTES);
+			mat.put(0, 0, doubles);
+			break;
+		}
+		
+		return mat;
+	}
+}
@@ -0,0 +1,80 @@
+package app;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.Point3;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgproc.Imgproc;
+
+//The two printed targets in use: the 9x6 chessboard of ViewController and the 4x11 asymmetric circle grid of Controller2.
+//Detection here is the plain full frame search for still images, without the pyramid and tracking of ChessboardDetector.
+public enum CalibrationTarget {
+	
+	CHESSBOARD(new Size(9, 6)),
+	CIRCLES(new Size(4, 11));
+	
+	private Size patternSize;
+	
+	private CalibrationTarget(Size patternSize) {
+		this.patternSize = patternSize;
+	}
+	
+	//-Dproperty=chessboard|circles
+	public static CalibrationTarget fromProperty(String property)
+	{
+		return valueOf(System.getProperty(property, "chessboard").toUpperCase());
+	}
+	
+	//One board unit is a square, or the distance between neighbouring rows of circles
+	public MatOfPoint3f objectPoints()
+	{
+		MatOfPoint3f objectPoints = new MatOfPoint3f();
+		
+		for(int row = 0; row < patternSize.height; row++)
+		{
+			for(int column = 0; column < patternSize.width; column++)
+			{
+				if(this == CHESSBOARD)
+				{
+					//Same points as ViewController: (row, column) of every inner corner in detection order
+					objectPoints.push_back(new MatOfPoint3f(new Point3(row, column, 0)));
+				}
+				else
+				{
+					//The real layout of an asymmetric grid, 2 units between circles of a row and every other row shifted by 1
+					objectPoints.push_back(new MatOfPoint3f(new Point3(2 * column + row % 2, row, 0)));
+				}
+			}
+		}
+		
+		return objectPoints;
+	}
+	
+	//Chessboard corners are refined with the same cornerSubPix settings as ChessboardDetector, circle centres are
+	//already sub-pixel blob centroids
+	public boolean detect(Mat gray, MatOfPoint2f points)
+	{
+		if(this == CHESSBOARD)
+		{
+			if(!Calib3d.findChessboardCorners(gray, patternSize, points, Calib3d.CALIB_CB_ADAPTIVE_THRESH + Calib3d.CALIB_CB_NORMALIZE_IMAGE))
+			{
+				return false;
+			}
+			
+			Imgproc.cornerSubPix(gray, points, new Size(11, 11), new Size(-1, -1),
+					new TermCriteria(TermCriteria.COUNT + TermCriteria.EPS, 30, 0.01));
+			
+			return true;
+		}
+		
+		return Calib3d.findCirclesGrid(gray, patternSize, points, Calib3d.CALIB_CB_ASYMMETRIC_GRID + Calib3d.CALIB_CB_CLUSTERING);
+	}
+	
+	public Size getPatternSize()
+	{
+		return patternSize;
+	}
+}
@@ -0,0 +1,7 @@
+package app;
+
+//Work done by a CalibrationJob. Long tasks should call job.progress() and job.checkCancelled() between their steps.
+public interface CalibrationTask<T> {
+	
+	T run(CalibrationJob<T> job) throws Exception;
+}
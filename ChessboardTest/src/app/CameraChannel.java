@@ -0,0 +1,266 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+//Everything that belongs to one camera of a rig: its source, detector, snapshots, calibration and remap tables.
+//Detection and rectification each run on a worker of their own, so a rig uses one core per camera and stage.
+public class CameraChannel {
+	
+	private int index;
+	private FrameSource source;
+	
+	private ExecutorService detectionWorker;
+	private ExecutorService rectificationWorker;
+	
+	private ChessboardDetector detector;
+	private Mat gray;
+	private MatOfPoint2f corners;
+	private boolean found;
+	private Size frameSize;
+	
+	private List<Mat> imagePoints;
+	
+	private Mat intrinsic;
+	private Mat distortion;
+	
+	//Pose relative to the rig's reference camera
+	private Mat rotation;
+	private Mat translation;
+	
+	private volatile Mat map1;
+	private volatile Mat map2;
+	private volatile boolean calibrated;
+	private volatile Size sourceSize;
+	private volatile Mat disparityToDepth;
+	private MatPool rectifiedPool;
+	
+	public CameraChannel(int index, FrameSource source, Size boardSize) {
+		this.index = index;
+		this.source = source;
+		
+		detectionWorker = Executors.newSingleThreadExecutor(r -> daemon(r, "detect-" + index));
+		rectificationWorker = Executors.newSingleThreadExecutor(r -> daemon(r, "rectify-" + index));
+		
+		detector = new ChessboardDetector(boardSize);
+		gray = new Mat();
+		corners = new MatOfPoint2f();
+		found = false;
+		frameSize = new Size();
+		
+		//Snapshots are added on the FX thread while the calibration thread copies them
+		imagePoints = Collections.synchronizedList(new ArrayList<>());
+		
+		intrinsic = new Mat(3, 3, CvType.CV_32FC1);
+		distortion = new Mat();
+		
+		rotation = Mat.eye(3, 3, CvType.CV_64F);
+		translation = Mat.zeros(3, 1, CvType.CV_64F);
+		
+		calibrated = false;
+		sourceSize = new Size();
+		disparityToDepth = new Mat();
+	}
+	
+	private static Thread daemon(Runnable work, String name)
+	{
+		Thread thread = new Thread(work, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+	
+	public Future<Boolean> submitDetection(Callable<Boolean> task)
+	{
+		return detectionWorker.submit(task);
+	}
+	
+	public Future<Boolean> submitRectification(Callable<Boolean> task)
+	{
+		return rectificationWorker.submit(task);
+	}
+	
+	//Detection worker only
+	public boolean detect(Mat frame)
+	{
+		frameSize = frame.size();
+		
+		long start = System.nanoTime();
+		Imgproc.cvtColor(frame, gray, Imgproc.COLOR_BGR2GRAY);
+		Metrics.timer("gray").recordSince(start);
+		
+		start = System.nanoTime();
+		found = detector.detect(gray, corners);
+		Metrics.timer("detect").recordSince(start);
+		Metrics.count(found ? "board.found" : "board.missed");
+		
+		return found;
+	}
+	
+	public void drawCorners(Mat frame, Size boardSize)
+	{
+		Calib3d.drawChessboardCorners(frame, boardSize, corners, found);
+	}
+	
+	//Rectification worker only, null until the channel is calibrated
+	public Frame rectify(Frame frame) throws InterruptedException
+	{
+		Mat first = map1;
+		Mat second = map2;
+		
+		if(!calibrated || rectifiedPool == null)
+		{
+			return null;
+		}
+		
+		//A stored calibration for another resolution, the maps do not fit this camera
+		if(frame.getImage().width() != sourceSize.width || frame.getImage().height() != sourceSize.height)
+		{
+			return null;
+		}
+		
+		Mat rectified = rectifiedPool.lease();
+		long start = System.nanoTime();
+		Imgproc.remap(frame.getImage(), rectified, first, second, Imgproc.INTER_LINEAR);
+		Metrics.timer("remap").recordSince(start);
+		
+		return new Frame(frame.getCamera(), frame.getSequence(), frame.getTimestamp(), rectified, rectifiedPool);
+	}
+	
+	//The maps may cover less than the frame (see StereoCalibration.cropToValidRegion), they are always for frames of the
+	//size the channel was calibrated at
+	public void setRectification(Mat map1, Mat map2)
+	{
+		sourceSize = frameSize.clone();
+		this.map1 = map1;
+		this.map2 = map2;
+		
+		calibrated = map1 != null;
+	}
+	
+	public void setRectifiedPool(MatPool rectifiedPool)
+	{
+		this.rectifiedPool = rectifiedPool;
+	}
+	
+	public void shutdown()
+	{
+		detectionWorker.shutdownNow();
+		rectificationWorker.shutdownNow();
+	}
+	
+	public int getIndex()
+	{
+		return index;
+	}
+	
+	public FrameSource getSource()
+	{
+		return source;
+	}
+	
+	public MatOfPoint2f getCorners()
+	{
+		return corners;
+	}
+	
+	public boolean isFound()
+	{
+		return found;
+	}
+	
+	public Size getFrameSize()
+	{
+		return frameSize;
+	}
+	
+	//For snapshots loaded from a journal before the camera delivered a frame
+	public void setFrameSize(Size frameSize)
+	{
+		this.frameSize = frameSize;
+	}
+	
+	public List<Mat> getImagePoints()
+	{
+		return imagePoints;
+	}
+	
+	public Mat getIntrinsic()
+	{
+		return intrinsic;
+	}
+	
+	public void setIntrinsic(Mat intrinsic)
+	{
+		this.intrinsic = intrinsic;
+	}
+	
+	public Mat getDistortion()
+	{
+		return distortion;
+	}
+	
+	public void setDistortion(Mat distortion)
+	{
+		this.distortion = distortion;
+	}
+	
+	public Mat getRotation()
+	{
+		return rotation;
+	}
+	
+	public Mat getTranslation()
+	{
+		return translation;
+	}
+	
+	public void setPose(Mat rotation, Mat translation)
+	{
+		this.rotation = rotation;
+		this.translation = translation;
+	}
+	
+	//Q of this camera's pair with the reference, for the reference the pair with the first other camera
+	public Mat getDisparityToDepth()
+	{
+		return disparityToDepth;
+	}
+	
+	public void setDisparityToDepth(Mat disparityToDepth)
+	{
+		this.disparityToDepth = disparityToDepth;
+	}
+	
+	public Mat getMap1()
+	{
+		return map1;
+	}
+	
+	public Mat getMap2()
+	{
+		return map2;
+	}
+	
+	public boolean isCalibrated()
+	{
+		return calibrated;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "Channel " + index + " (" + source + ")";
+	}
+}
@@ -0,0 +1,57 @@
+package app;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+
+public class CameraFrameSource implements FrameSource {
+	
+	private VideoCapture camera;
+	private int index;
+	
+	public CameraFrameSource(int index) {
+		this.index = index;
+		camera = new VideoCapture();
+	}
+	
+	@Override
+	public boolean open()
+	{
+		return camera.isOpened() || camera.open(index);
+	}
+	
+	@Override
+	public boolean isOpened()
+	{
+		return camera.isOpened();
+	}
+	
+	@Override
+	public boolean grab()
+	{
+		return camera.grab();
+	}
+	
+	@Override
+	public boolean retrieve(Mat frame)
+	{
+		return camera.retrieve(frame);
+	}
+	
+	@Override
+	public void release()
+	{
+		camera.release();
+	}
+	
+	@Override
+	public boolean isLive()
+	{
+		return true;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "Camera " + index;
+	}
+}
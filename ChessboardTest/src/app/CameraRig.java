@@ -0,0 +1,348 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+//Any number of cameras looked at as one rig. Per-frame work is fanned out to the channels' own workers,
+//and stereo calibration is done pairwise between every camera and the reference camera.
+public class CameraRig {
+	
+	public static final String CAMERAS_PROPERTY = "chessboard.cameras";
+	public static final String RECTIFIED_AREA_PROPERTY = "chessboard.rectifiedArea";
+	
+	private List<CameraChannel> channels;
+	private int reference;
+	private Size boardSize;
+	private boolean cropToValid;
+	
+	//Corners of every camera from the last set they all saw the board in, guarded by this
+	private List<Mat> foundCorners;
+	
+	public CameraRig(List<CameraChannel> channels, int reference, Size boardSize) {
+		this.channels = channels;
+		this.reference = reference;
+		this.boardSize = boardSize;
+		
+		//"valid" (default) rectifies only the region every pair has valid pixels for, "full" keeps the whole frame
+		cropToValid = !"full".equals(System.getProperty(RECTIFIED_AREA_PROPERTY, "valid"));
+	}
+	
+	//-Dchessboard.cameras cameras (2 by default) from FrameSources, camera 0 being the reference
+	public static CameraRig fromProperties(Size boardSize)
+	{
+		int cameras = camerasFromProperty();
+		List<CameraChannel> channels = new ArrayList<>();
+		
+		for(int i = 0; i < cameras; i++)
+		{
+			channels.add(new CameraChannel(i, FrameSources.create(i), boardSize));
+		}
+		
+		return new CameraRig(channels, 0, boardSize);
+	}
+	
+	//Calibration, rectification and depth all work on pairs with the reference, a single camera has none
+	public static int camerasFromProperty()
+	{
+		int cameras = Integer.getInteger(CAMERAS_PROPERTY, 2);
+		
+		if(cameras < 2)
+		{
+			throw new IllegalArgumentException("-D" + CAMERAS_PROPERTY + "=" + cameras + ": a rig needs at least 2 cameras");
+		}
+		
+		return cameras;
+	}
+	
+	public boolean open()
+	{
+		boolean opened = true;
+		
+		for(CameraChannel channel : channels)
+		{
+			if(!channel.getSource().open())
+			{
+				System.out.println("Error opening " + channel.getSource() + ", please check the connection and try again");
+				opened = false;
+			}
+		}
+		
+		return opened;
+	}
+	
+	public List<FrameSource> getSources()
+	{
+		List<FrameSource> sources = new ArrayList<>();
+		
+		for(CameraChannel channel : channels)
+		{
+			sources.add(channel.getSource());
+		}
+		
+		return sources;
+	}
+	
+	public int size()
+	{
+		return channels.size();
+	}
+	
+	public CameraChannel getChannel(int index)
+	{
+		return channels.get(index);
+	}
+	
+	public CameraChannel getReference()
+	{
+		return channels.get(reference);
+	}
+	
+	//Looks for the board in every camera at once, true when all of them see it
+	public boolean detect(FrameSet set) throws InterruptedException
+	{
+		List<Future<Boolean>> results = new ArrayList<>();
+		
+		for(CameraChannel channel : channels)
+		{
+			Mat frame = set.getFrame(channel.getIndex()).getImage();
+			results.add(channel.submitDetection(() -> channel.detect(frame)));
+		}
+		
+		boolean all = waitForAll(results);
+		List<Mat> corners = null;
+		
+		if(all)
+		{
+			//Copied here, the workers are done with this set and only write the corners again for the next one. A camera
+			//that misses the board leaves its last corners in place, so the copies are only taken when all of them found it.
+			corners = new ArrayList<>();
+			
+			for(CameraChannel channel : channels)
+			{
+				corners.add(channel.getCorners().clone());
+			}
+			
+			for(CameraChannel channel : channels)
+			{
+				channel.drawCorners(set.getFrame(channel.getIndex()).getImage(), boardSize);
+			}
+		}
+		
+		synchronized(this)
+		{
+			foundCorners = corners;
+		}
+		
+		return all;
+	}
+	
+	//The corners of the last detected set, null when a camera missed the board in it. Every set is handed out once so
+	//the same view is never added twice.
+	public synchronized List<Mat> takeFoundCorners()
+	{
+		List<Mat> corners = foundCorners;
+		foundCorners = null;
+		
+		return corners;
+	}
+	
+	//Takes them only when accept agrees, nothing else can take them in between. accept is not asked without any.
+	public synchronized List<Mat> takeFoundCorners(BooleanSupplier accept)
+	{
+		if(foundCorners == null || !accept.getAsBoolean())
+		{
+			return null;
+		}
+		
+		return takeFoundCorners();
+	}
+	
+	public void rectify(FrameSet set) throws InterruptedException
+	{
+		List<Future<Boolean>> results = new ArrayList<>();
+		
+		for(CameraChannel channel : channels)
+		{
+			int index = channel.getIndex();
+			
+			results.add(channel.submitRectification(() -> {
+				Frame rectified = channel.rectify(set.getFrame(index));
+				
+				if(rectified != null)
+				{
+					set.setRectified(index, rectified);
+				}
+				
+				return rectified != null;
+			}));
+		}
+		
+		waitForAll(results);
+	}
+	
+	public boolean isCalibrated()
+	{
+		for(CameraChannel channel : channels)
+		{
+			if(!channel.isCalibrated())
+			{
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	//Image points of the first snapshots of every camera, copied because more snapshots may still be added from the
+	//FX thread while a calibration runs
+	public List<List<Mat>> getSnapshotPoints(int views)
+	{
+		List<List<Mat>> imagePoints = new ArrayList<>();
+		
+		for(CameraChannel channel : channels)
+		{
+			imagePoints.add(new ArrayList<>(new ArrayList<>(channel.getImagePoints()).subList(0, views)));
+		}
+		
+		return imagePoints;
+	}
+	
+	public List<StereoCalibration> calibrateAgainstReference(List<Mat> objectPoints, CalibrationService service, CalibrationJob<?> job) 
+			throws InterruptedException, ExecutionException
+	{
+		return calibrateAgainstReference(objectPoints, getSnapshotPoints(objectPoints.size()), service, job);
+	}
+	
+	//Stereo calibrates every camera against the reference on the calibration service, the pairs are solved in parallel.
+	//The reference keeps the rectification of its pair with the first other camera. Nothing is applied to the channels
+	//until all solves are in, so a cancelled job leaves the previous calibration (and the running rectification) untouched.
+	public List<StereoCalibration> calibrateAgainstReference(List<Mat> objectPoints, List<List<Mat>> imagePoints, 
+			CalibrationService service, CalibrationJob<?> job) throws InterruptedException, ExecutionException
+	{
+		CameraChannel base = getReference();
+		Size size = base.getFrameSize();
+		
+		job.progress(0, "Initial camera matrices");
+		
+		List<Callable<Mat>> guesses = new ArrayList<>();
+		
+		for(int i = 0; i < channels.size(); i++)
+		{
+			CameraChannel channel = channels.get(i);
+			List<Mat> points = imagePoints.get(i);
+			
+			if(channel.isCalibrated())
+			{
+				//Warm start from the last solution, stereoCalibrate takes it as its intrinsic guess
+				Mat previous = channel.getIntrinsic().clone();
+				guesses.add(() -> previous);
+			}
+			else
+			{
+				guesses.add(() -> StereoCalibration.initIntrinsic(objectPoints, points, size));
+			}
+		}
+		
+		List<Mat> intrinsics = service.solveAll(job, guesses);
+		
+		job.progress(0.2, "Stereo calibration");
+		
+		int baseIndex = channels.indexOf(base);
+		List<CameraChannel> others = new ArrayList<>();
+		List<Callable<StereoCalibration>> solves = new ArrayList<>();
+		
+		for(int i = 0; i < channels.size(); i++)
+		{
+			CameraChannel channel = channels.get(i);
+			
+			if(channel == base)
+			{
+				continue;
+			}
+			
+			//Every pair refines its own copy of the reference intrinsics
+			Mat baseIntrinsic = intrinsics.get(baseIndex).clone();
+			Mat baseDistortion = base.getDistortion().clone();
+			Mat intrinsic = intrinsics.get(i);
+			Mat distortion = channel.getDistortion().clone();
+			List<Mat> points = imagePoints.get(i);
+			
+			others.add(channel);
+			solves.add(() -> {
+				StereoCalibration pair = StereoCalibration.calibrate(objectPoints, imagePoints.get(baseIndex), points, size, 
+						baseIntrinsic, baseDistortion, intrinsic, distortion);
+				
+				if(cropToValid && !pair.cropToValidRegion())
+				{
+					System.out.println("No common valid region for cameras " + base.getIndex() + "-" + channel.getIndex() + ", rectifying full frames");
+				}
+				
+				return pair;
+			});
+		}
+		
+		List<StereoCalibration> pairs = service.solveAll(job, solves);
+		
+		job.checkCancelled();
+		job.progress(0.95, "Applying calibration");
+		
+		for(int i = 0; i < pairs.size(); i++)
+		{
+			StereoCalibration pair = pairs.get(i);
+			CameraChannel channel = others.get(i);
+			
+			System.out.println("Stereo error " + base.getIndex() + "-" + channel.getIndex() + ": " + pair.getError());
+			
+			channel.setIntrinsic(pair.getIntrinsic2());
+			channel.setDistortion(pair.getDistortion2());
+			channel.setPose(pair.getRotation(), pair.getTranslation());
+			channel.setDisparityToDepth(pair.getDisparityToDepth());
+			channel.setRectification(pair.getCamera2Map1(), pair.getCamera2Map2());
+			
+			if(i == 0)
+			{
+				base.setIntrinsic(pair.getIntrinsic1());
+				base.setDistortion(pair.getDistortion1());
+				base.setDisparityToDepth(pair.getDisparityToDepth());
+				base.setRectification(pair.getCamera1Map1(), pair.getCamera1Map2());
+			}
+		}
+		
+		return pairs;
+	}
+	
+	public void shutdown()
+	{
+		for(CameraChannel channel : channels)
+		{
+			channel.shutdown();
+		}
+	}
+	
+	private boolean waitForAll(List<Future<Boolean>> results) throws InterruptedException
+	{
+		boolean all = true;
+		
+		for(Future<Boolean> result : results)
+		{
+			try
+			{
+				all &= result.get();
+			}
+			catch(ExecutionException e)
+			{
+				System.err.println("Camera task failed: " + e.getCause());
+				all = false;
+			}
+		}
+		
+		return all;
+	}
+}
@@ -0,0 +1,254 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgproc.Imgproc;
+
+//Finds the chessboard in one camera's grayscale frames.
+//FULL runs findChessboardCorners on the whole frame like before. PYRAMID searches a pyrDown level no wider than
+//searchWidth, with CALIB_CB_FAST_CHECK so frames without a board are rejected early, and only around the board's last
+//position while it keeps being found. Either way the corners are refined with cornerSubPix on the full resolution frame.
+//Between detections the corners are followed with a CornerTracker, see -Dchessboard.tracking and -Dchessboard.trackRefresh.
+public class ChessboardDetector {
+	
+	public static final String MODE_PROPERTY = "chessboard.detection";
+	public static final String SEARCH_WIDTH_PROPERTY = "chessboard.searchWidth";
+	public static final String TRACKING_PROPERTY = "chessboard.tracking";
+	
+	public enum Mode {
+		FULL,
+		PYRAMID
+	}
+	
+	private Size boardSize;
+	private Mode mode;
+	private int searchWidth;
+	
+	private Size subPixWindow;
+	private Size subPixZeroZone;
+	private TermCriteria subPixTerm;
+	
+	private List<Mat> levels;
+	private MatOfPoint2f levelCorners;
+	private float[] points;
+	
+	//Null when tracking is switched off
+	private CornerTracker tracker;
+	
+	//Bounding box of the last detection in full resolution pixels, null when the board was lost
+	private Rect lastBoard;
+	
+	public ChessboardDetector(Size boardSize) {
+		this(boardSize, Mode.valueOf(System.getProperty(MODE_PROPERTY, "pyramid").toUpperCase()), 
+				Integer.getInteger(SEARCH_WIDTH_PROPERTY, 640));
+	}
+	
+	public ChessboardDetector(Size boardSize, Mode mode, int searchWidth) {
+		this.boardSize = boardSize;
+		this.mode = mode;
+		this.searchWidth = searchWidth;
+		
+		subPixWindow = new Size(11, 11);
+		subPixZeroZone = new Size(-1, -1);
+		subPixTerm = new TermCriteria(TermCriteria.COUNT + TermCriteria.EPS, 30, 0.01);
+		
+		tracker = Boolean.parseBoolean(System.getProperty(TRACKING_PROPERTY, "true")) ? new CornerTracker(boardSize) : null;
+		
+		levels = new ArrayList<>();
+		levelCorners = new MatOfPoint2f();
+		points = new float[0];
+		lastBoard = null;
+	}
+	
+	public boolean detect(Mat gray, MatOfPoint2f corners)
+	{
+		//Following the board from the last frame only costs a sparse update of its corners
+		if(tracker != null && tracker.canTrack() && tracker.track(gray, corners))
+		{
+			lastBoard = bounds(corners);
+			return true;
+		}
+		
+		boolean found;
+		
+		if(mode == Mode.FULL)
+		{
+			found = Calib3d.findChessboardCorners(gray, boardSize, corners, 
+					Calib3d.CALIB_CB_ADAPTIVE_THRESH + Calib3d.CALIB_CB_NORMALIZE_IMAGE);
+		}
+		else
+		{
+			found = detectOnPyramid(gray, corners);
+		}
+		
+		if(found)
+		{
+			long start = System.nanoTime();
+			Imgproc.cornerSubPix(gray, corners, subPixWindow, subPixZeroZone, subPixTerm);
+			Metrics.timer("cornerSubPix").recordSince(start);
+			lastBoard = bounds(corners);
+			
+			if(tracker != null)
+			{
+				tracker.start(gray, corners);
+			}
+		}
+		else
+		{
+			lastBoard = null;
+			
+			if(tracker != null)
+			{
+				tracker.lost();
+			}
+		}
+		
+		return found;
+	}
+	
+	public Mode getMode()
+	{
+		return mode;
+	}
+	
+	//Forget the last position, e.g. after the cameras were switched
+	public void reset()
+	{
+		lastBoard = null;
+		
+		if(tracker != null)
+		{
+			tracker.lost();
+		}
+	}
+	
+	private boolean detectOnPyramid(Mat gray, MatOfPoint2f corners)
+	{
+		Mat level = gray;
+		int scale = 1;
+		int depth = 0;
+		
+		while(level.cols() > searchWidth)
+		{
+			if(levels.size() <= depth)
+			{
+				levels.add(new Mat());
+			}
+			
+			Imgproc.pyrDown(level, levels.get(depth));
+			level = levels.get(depth);
+			scale *= 2;
+			depth++;
+		}
+		
+		Rect roi = lastBoard == null ? null : searchArea(lastBoard, scale, level);
+		boolean found = false;
+		
+		if(roi != null)
+		{
+			Mat area = level.submat(roi);
+			found = findOnLevel(area);
+			area.release();
+		}
+		
+		if(!found)
+		{
+			//Not where it was last time, look at the whole level before giving up
+			roi = null;
+			found = findOnLevel(level);
+		}
+		
+		if(found)
+		{
+			toFullResolution(roi, scale, corners);
+		}
+		
+		return found;
+	}
+	
+	private boolean findOnLevel(Mat level)
+	{
+		return Calib3d.findChessboardCorners(level, boardSize, levelCorners, 
+				Calib3d.CALIB_CB_ADAPTIVE_THRESH + Calib3d.CALIB_CB_NORMALIZE_IMAGE + Calib3d.CALIB_CB_FAST_CHECK);
+	}
+	
+	//The last bounding box grown by half its size on every side, in level pixels and clipped to the level
+	private Rect searchArea(Rect board, int scale, Mat level)
+	{
+		int x = (board.x - board.width / 2) / scale;
+		int y = (board.y - board.height / 2) / scale;
+		int right = (board.x + board.width + board.width / 2) / scale;
+		int bottom = (board.y + board.height + board.height / 2) / scale;
+		
+		x = Math.max(0, x);
+		y = Math.max(0, y);
+		right = Math.min(level.cols(), right);
+		bottom = Math.min(level.rows(), bottom);
+		
+		if(right - x < 32 || bottom - y < 32)
+		{
+			return null;
+		}
+		
+		return new Rect(x, y, right - x, bottom - y);
+	}
+	
+	//pyrDown centres level pixel i on full resolution pixel i * 2, so scaling the coordinates back is enough
+	private void toFullResolution(Rect roi, int scale, MatOfPoint2f corners)
+	{
+		int length = (int) levelCorners.total() * 2;
+		
+		if(points.length != length)
+		{
+			points = new float[length];
+		}
+		
+		levelCorners.get(0, 0, points);
+		
+		float offsetX = roi == null ? 0 : roi.x;
+		float offsetY = roi == null ? 0 : roi.y;
+		
+		for(int i = 0; i < length; i += 2)
+		{
+			points[i] = (points[i] + offsetX) * scale;
+			points[i + 1] = (points[i + 1] + offsetY) * scale;
+		}
+		
+		corners.create((int) levelCorners.total(), 1, levelCorners.type());
+		corners.put(0, 0, points);
+	}
+	
+	private Rect bounds(MatOfPoint2f corners)
+	{
+		int length = (int) corners.total() * 2;
+		
+		if(points.length != length)
+		{
+			points = new float[length];
+		}
+		
+		corners.get(0, 0, points);
+		
+		float minX = Float.MAX_VALUE;
+		float minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE;
+		float maxY = -Float.MAX_VALUE;
+		
+		for(int i = 0; i < length; i += 2)
+		{
+			minX = Math.min(minX, points[i]);
+			maxX = Math.max(maxX, points[i]);
+			minY = Math.min(minY, points[i + 1]);
+			maxY = Math.max(maxY, points[i + 1]);
+		}
+		
+		return new Rect((int) minX, (int) minY, (int) Math.ceil(maxX - minX), (int) Math.ceil(maxY - minY));
+	}
+}
@@ -1,12 +1,13 @@
 package app;
 
-import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
-import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import org.opencv.calib3d.Calib3d;
@@ -19,13 +20,8 @@ import org.opencv.core.Point3;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
-import org.opencv.videoio.VideoCapture;
 
-import javafx.application.Platform;
-import javafx.beans.property.ObjectProperty;
-import javafx.embed.swing.SwingFXUtils;
 import javafx.fxml.FXML;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 
 public class Controller2 {
@@ -38,14 +34,27 @@ public class Controller2 {
 	@FXML
 	private ImageView secondViewCorrected;
 	
-	private VideoCapture camera1;
-	private VideoCapture camera2;
+	private MatView mainViewDisplay;
+	private MatView mainViewCorrectedDisplay;
+	private MatView secondViewDisplay;
+	private MatView secondViewCorrectedDisplay;
+	private DisplayPump displayPump;
+	private MjpegServer streamServer;
+	
+	private FrameSource camera1;
+	private FrameSource camera2;
 	
 	private Mat frame1;
 	private Mat frame2;
 	
-	private boolean camera1Calibrated;
-	private boolean camera2Calibrated;
+	private Mat frame1Gray;
+	private Mat frame2Gray;
+	
+	private Mat frame1UD;
+	private Mat frame2UD;
+	
+	private volatile boolean camera1Calibrated;
+	private volatile boolean camera2Calibrated;
 	
 	private List<Mat> camera1Points;
 	private List<Mat> camera2Points;
@@ -56,11 +65,11 @@ public class Controller2 {
 	
 	private MatOfPoint3f cameraObj;
 	
-	private Mat camera1Intrinsic;
-	private Mat camera2Intrinsic;
+	private volatile Mat camera1Intrinsic;
+	private volatile Mat camera2Intrinsic;
 	
-	private Mat camera1Dist;
-	private Mat camera2Dist;
+	private volatile Mat camera1Dist;
+	private volatile Mat camera2Dist;
 	
 	private int numFramesToCalib;
 	private int numFrames;
@@ -69,22 +78,50 @@ public class Controller2 {
 	private int numCornersVer;
 	private int numCorners;
 	
-	private long prevTime;
-	private long currentTime;
+	private Size boardSize;
 	
-	private ScheduledExecutorService timer;
+	private long frameTimestamp;
+	private long frameDeadline;
+	
+	private SynchronizedCapture capture;
+	private FrameDeadlines deadlines;
+	private ExecutorService frameLoop;
 	
 	private boolean registerCameras;
 	
+	//Frame thread only, apart from reregister
+	private Mat homography;
+	private RegistrationMap camera1Registration;
+	private RegistrationMap camera2Registration;
+	private boolean registeredCalibrated;
+	private volatile boolean reregister;
+	
+	private KeyframeSelector keyframes;
+	
+	private File journalFile;
+	private SnapshotJournal journal;
+	
+	private CalibrationService calibration;
+	private CalibrationJob<List<Double>> calibrationJob;
+	
 	public Controller2() {
-		camera1 = new VideoCapture();
-		camera2 = new VideoCapture();
+		camera1 = FrameSources.create(0);
+		camera2 = FrameSources.create(1);
 		
 		registerCameras = false;
+		reregister = false;
+		registeredCalibrated = false;
 		
 		numCornersHor = 4;
 		numCornersVer = 11;
 		numCorners = numCornersHor * numCornersVer;
+		boardSize = new Size(numCornersHor, numCornersVer);
+		
+		//Scratch buffers reused every frame so detection does not allocate native memory
+		frame1Gray = new Mat();
+		frame2Gray = new Mat();
+		frame1UD = new Mat();
+		frame2UD = new Mat();
 		
 		camera1Corners = new MatOfPoint2f();
 		camera2Corners = new MatOfPoint2f();
@@ -103,12 +140,16 @@ public class Controller2 {
 		camera1Calibrated = false;
 		camera2Calibrated = false;
 		
+		keyframes = new KeyframeSelector(boardSize);
+		
+		String journalPath = System.getProperty("chessboard.journal", "circles.cbj");
+		journalFile = journalPath.isEmpty() ? null : new File(journalPath);
+		
+		calibration = new CalibrationService();
+		
 		numFrames = 0;
 		numFramesToCalib = 20;
 		
-		prevTime = 0;
-		currentTime = System.currentTimeMillis();
-		
 		for(int i = 0; i < numCornersVer; i++)
 		{
 			for(int j = 0; j < numCornersHor; j++)
@@ -125,13 +166,38 @@ public class Controller2 {
 		*/
 	}
 	
+	@FXML
+	private void initialize()
+	{
+		displayPump = new DisplayPump();
+		
+		mainViewDisplay = displayPump.register(new MatView(mainView));
+		mainViewCorrectedDisplay = displayPump.register(new MatView(mainViewCorrected));
+		secondViewDisplay = displayPump.register(new MatView(secondView));
+		secondViewCorrectedDisplay = displayPump.register(new MatView(secondViewCorrected));
+		
+		//The same views over HTTP, off unless -Dchessboard.stream.port is set
+		streamServer = MjpegServer.fromProperties();
+		
+		if(streamServer != null)
+		{
+			streamServer.attach("mainView", mainViewDisplay);
+			streamServer.attach("mainViewCorrected", mainViewCorrectedDisplay);
+			streamServer.attach("secondView", secondViewDisplay);
+			streamServer.attach("secondViewCorrected", secondViewCorrectedDisplay);
+		}
+		
+		displayPump.start();
+		Metrics.register();
+	}
+	
 	@FXML
 	private void startCameras()
 	{
 		System.out.println("Starting cameras");
 		if(!camera1.isOpened() && !camera2.isOpened())
 		{
-			if(camera1.open(0) && camera2.open(1))
+			if(camera1.open() && camera2.open())
 			{
 				runCameras();
 			}
@@ -153,6 +219,8 @@ public class Controller2 {
 	@FXML
 	private void registerCameras()
 	{
+		reregister = true;
+		
 		if(registerCameras)
 		{
 			registerCameras = false;
@@ -172,221 +240,358 @@ public class Controller2 {
 				
 				@Override
 				public void run() {
-					frame1 = new Mat();
-					frame2 = new Mat();
+					Frame[] frames;
 					
-					camera1.read(frame1);
-					camera2.read(frame2);
+					try
+					{
+						frames = capture.next(100, TimeUnit.MILLISECONDS);
+					}
+					catch(InterruptedException e)
+					{
+						return;
+					}
 					
-					if(registerCameras)
+					if(frames == null)
 					{
-						//Calibrate cameras individually using assymetrical circles grid
-						findAndDrawPoints(frame1, frame2);
-						//Get perspective transform based off the same 4 points on the circle grid
-						if(camera1Calibrated && !camera2Calibrated)
+						if(!capture.isRunning())
 						{
-							MatOfPoint2f cam1Corners = new MatOfPoint2f();
-							MatOfPoint2f cam2Corners = new MatOfPoint2f();
-							
-							Imgproc.circle(frame1, new Point(camera1Corners.row(0).get(0, 0)[0], camera1Corners.row(0).get(0, 0)[1]), 5, new Scalar(255, 0, 0), 5);
-							Imgproc.circle(frame2, new Point(camera2Corners.row(0).get(0, 0)[0], camera2Corners.row(0).get(0, 0)[1]), 5, new Scalar(255, 0, 0), 5);
-							
-							Imgproc.circle(frame1, new Point(camera1Corners.row(15).get(0, 0)[0], camera1Corners.row(15).get(0, 0)[1]), 5, new Scalar(0, 255, 0), 5);
-							Imgproc.circle(frame2, new Point(camera2Corners.row(15).get(0, 0)[0], camera2Corners.row(15).get(0, 0)[1]), 5, new Scalar(0, 255, 0), 5);
-							
-							Imgproc.circle(frame1, new Point(camera1Corners.row(30).get(0, 0)[0], camera1Corners.row(30).get(0, 0)[1]), 5, new Scalar(0, 0, 255), 5);
-							Imgproc.circle(frame2, new Point(camera2Corners.row(30).get(0, 0)[0], camera2Corners.row(30).get(0, 0)[1]), 5, new Scalar(0, 0, 255), 5);
-							
-							Imgproc.circle(frame1, new Point(camera1Corners.row(40).get(0, 0)[0], camera1Corners.row(40).get(0, 0)[1]), 5, new Scalar(255, 255, 255), 5);
-							Imgproc.circle(frame2, new Point(camera2Corners.row(40).get(0, 0)[0], camera2Corners.row(40).get(0, 0)[1]), 5, new Scalar(255, 255, 255), 5);
-							
-							cam1Corners.push_back(camera1Corners.row(0));
-							cam1Corners.push_back(camera1Corners.row(15));
-							cam1Corners.push_back(camera1Corners.row(30));
-							cam1Corners.push_back(camera1Corners.row(40));
-							
-							cam2Corners.push_back(camera2Corners.row(0));
-							cam2Corners.push_back(camera1Corners.row(15));
-							cam2Corners.push_back(camera1Corners.row(30));
-							cam2Corners.push_back(camera1Corners.row(40));
-							
-							System.out.println(cam1Corners.dump());
-							System.out.println(cam2Corners.dump());
-							
-							Mat homo = Calib3d.findHomography(cam2Corners, cam1Corners);
-							Mat perp = Imgproc.getPerspectiveTransform(cam2Corners, cam1Corners);
-							
-							Mat frame2UD = new Mat();
-							Imgproc.warpPerspective(frame2, frame2UD, homo, frame2.size(), Imgproc.INTER_LINEAR);
-							//Imgproc.warpPerspective(frame2, frame2UD, perp.inv(), frame2.size(), Imgproc.INTER_LINEAR);
-							
-							updateImageView(secondViewCorrected, mat2Image(frame2UD));
-						}
-						
-						if(camera1Calibrated && camera2Calibrated)
-						{
-							Mat frame1UD = new Mat();
-							Mat frame2UD = new Mat();
-							Imgproc.undistort(frame1, frame1UD, camera1Intrinsic, camera1Dist);
-							Imgproc.undistort(frame2, frame2UD, camera2Intrinsic, camera2Dist);
-							//Calib3d.undistortImage(frame1, frame1UD, camera1Intrinsic, camera1Dist);	
-							//Calib3d.undistortImage(frame2, frame2UD, camera2Intrinsic, camera2Dist);
-							
-							updateImageView(mainViewCorrected, mat2Image(frame1UD));
-							updateImageView(secondViewCorrected, mat2Image(frame2UD));
+							frameLoop.shutdown();
 						}
+						return;
 					}
 					
-					updateImageView(mainView, mat2Image(frame1));
-					updateImageView(secondView, mat2Image(frame2));
+					frame1 = frames[0].getImage();
+					frame2 = frames[1].getImage();
+					frameTimestamp = Math.min(frames[0].getTimestamp(), frames[1].getTimestamp());
+					frameDeadline = deadlines == null ? 0 : deadlines.deadline(frameTimestamp);
+					
+					try
+					{
+						processFrames();
+					}
+					finally
+					{
+						frames[0].release();
+						frames[1].release();
+					}
 				}
 			};
 			
-			timer = Executors.newSingleThreadScheduledExecutor();
-			timer.scheduleAtFixedRate(framegrabber, 0, 33, TimeUnit.MILLISECONDS);
+			boolean fastReplay = FrameSources.isFastReplay(camera1, camera2);
+			
+			capture = new SynchronizedCapture(Arrays.asList(camera1, camera2), 33, fastReplay);
+			capture.setRecorder(FrameRecorder.fromProperties(2));
+			capture.start();
+			
+			//Runs as frames arrive: next() blocks until the cameras deliver a set, at whatever rate they have. A replay
+			//that is not fast is paced by the capture threads. Each set gets a deadline of one frame interval.
+			deadlines = fastReplay ? null : new FrameDeadlines();
+			frameLoop = Executors.newSingleThreadExecutor();
+			frameLoop.execute(() -> {
+				while(!frameLoop.isShutdown())
+				{
+					framegrabber.run();
+				}
+			});
 		}
 	}
 	
+	private void processFrames()
+	{
+		if(registerCameras)
+		{
+			//Calibrate cameras individually using assymetrical circles grid
+			findAndDrawPoints(frame1, frame2);
+			//Registration is rebuilt when calibration finishes or the cameras are registered again
+			if(reregister || registeredCalibrated != camera2Calibrated)
+			{
+				reregister = false;
+				registeredCalibrated = camera2Calibrated;
+				homography = null;
+				camera1Registration = null;
+				camera2Registration = null;
+			}
+			
+			//Get perspective transform based off the same 4 points on the circle grid
+			if(camera1Calibrated && !camera2Calibrated)
+			{
+				Imgproc.circle(frame1, new Point(camera1Corners.row(0).get(0, 0)[0], camera1Corners.row(0).get(0, 0)[1]), 5, new Scalar(255, 0, 0), 5);
+				Imgproc.circle(frame2, new Point(camera2Corners.row(0).get(0, 0)[0], camera2Corners.row(0).get(0, 0)[1]), 5, new Scalar(255, 0, 0), 5);
+				
+				Imgproc.circle(frame1, new Point(camera1Corners.row(15).get(0, 0)[0], camera1Corners.row(15).get(0, 0)[1]), 5, new Scalar(0, 255, 0), 5);
+				Imgproc.circle(frame2, new Point(camera2Corners.row(15).get(0, 0)[0], camera2Corners.row(15).get(0, 0)[1]), 5, new Scalar(0, 255, 0), 5);
+				
+				Imgproc.circle(frame1, new Point(camera1Corners.row(30).get(0, 0)[0], camera1Corners.row(30).get(0, 0)[1]), 5, new Scalar(0, 0, 255), 5);
+				Imgproc.circle(frame2, new Point(camera2Corners.row(30).get(0, 0)[0], camera2Corners.row(30).get(0, 0)[1]), 5, new Scalar(0, 0, 255), 5);
+				
+				Imgproc.circle(frame1, new Point(camera1Corners.row(40).get(0, 0)[0], camera1Corners.row(40).get(0, 0)[1]), 5, new Scalar(255, 255, 255), 5);
+				Imgproc.circle(frame2, new Point(camera2Corners.row(40).get(0, 0)[0], camera2Corners.row(40).get(0, 0)[1]), 5, new Scalar(255, 255, 255), 5);
+				
+				if(homography == null)
+				{
+					homography = estimateHomography(camera1Corners, camera2Corners);
+					camera2Registration = new RegistrationMap(null, null, homography, frame2.size());
+				}
+			}
+			
+			if(camera2Calibrated)
+			{
+				//Once calibrated the homography is taken between the undistorted corners, the first time both cameras see the board
+				if(homography == null && camera1Calibrated && camera1Corners.total() == numCorners && camera2Corners.total() == numCorners)
+				{
+					homography = estimateHomography(RegistrationMap.undistortPoints(camera1Corners, camera1Intrinsic, camera1Dist), 
+							RegistrationMap.undistortPoints(camera2Corners, camera2Intrinsic, camera2Dist));
+					camera2Registration = null;
+				}
+				
+				if(camera1Registration == null)
+				{
+					camera1Registration = new RegistrationMap(camera1Intrinsic, camera1Dist, null, frame1.size());
+				}
+				
+				if(camera2Registration == null)
+				{
+					camera2Registration = new RegistrationMap(camera2Intrinsic, camera2Dist, homography, frame2.size());
+				}
+			}
+			
+			if(camera1Registration != null && camera1Registration.fits(frame1))
+			{
+				camera1Registration.apply(frame1, frame1UD);
+				mainViewCorrectedDisplay.show(frame1UD, frameTimestamp);
+			}
+			
+			if(camera2Registration != null && camera2Registration.fits(frame2))
+			{
+				camera2Registration.apply(frame2, frame2UD);
+				secondViewCorrectedDisplay.show(frame2UD, frameTimestamp);
+			}
+		}
+		
+		mainViewDisplay.show(frame1, frameTimestamp);
+		secondViewDisplay.show(frame2, frameTimestamp);
+	}
+	
+	//Maps camera 2 onto camera 1 from the same 4 points on the circle grid
+	private Mat estimateHomography(MatOfPoint2f camera1Points, MatOfPoint2f camera2Points)
+	{
+		MatOfPoint2f cam1Corners = new MatOfPoint2f();
+		MatOfPoint2f cam2Corners = new MatOfPoint2f();
+		
+		for(int row : new int[] {0, 15, 30, 40})
+		{
+			cam1Corners.push_back(camera1Points.row(row));
+			cam2Corners.push_back(camera2Points.row(row));
+		}
+		
+		Mat homography = Calib3d.findHomography(cam2Corners, cam1Corners);
+		System.out.println("Registered camera 2 onto camera 1 by a homography from circles 0, 15, 30 and 40");
+		
+		return homography;
+	}
+	
 	private void findAndDrawPoints(Mat frame1, Mat frame2)
 	{
-		Mat copy1 = new Mat();
-		Imgproc.cvtColor(frame1, copy1, Imgproc.COLOR_BGR2GRAY);
+		//Behind with the next set already waiting: this one is shown without detection instead of making that one late too
+		if(frameDeadline != 0 && capture.hasBacklog() && !FrameDeadlines.fits(frameDeadline, Metrics.timer("detect")))
+		{
+			Metrics.count("stage.detect.skipped");
+			return;
+		}
 		
-		Mat copy2 = new Mat();
-		Imgproc.cvtColor(frame2, copy2, Imgproc.COLOR_BGR2GRAY);
+		long start = System.nanoTime();
+		Imgproc.cvtColor(frame1, frame1Gray, Imgproc.COLOR_BGR2GRAY);
+		Imgproc.cvtColor(frame2, frame2Gray, Imgproc.COLOR_BGR2GRAY);
+		Metrics.timer("gray").recordSince(start);
 		
 		if(numFrames < numFramesToCalib)
 		{
-			Size boardSize = new Size(4, 11);
-			
-			boolean found1 = Calib3d.findCirclesGrid(copy1, boardSize, camera1Corners, Calib3d.CALIB_CB_ASYMMETRIC_GRID + Calib3d.CALIB_CB_CLUSTERING);
-			boolean found2 = Calib3d.findCirclesGrid(copy2, boardSize, camera2Corners, Calib3d.CALIB_CB_ASYMMETRIC_GRID + Calib3d.CALIB_CB_CLUSTERING);
+			start = System.nanoTime();
+			boolean found1 = Calib3d.findCirclesGrid(frame1Gray, boardSize, camera1Corners, Calib3d.CALIB_CB_ASYMMETRIC_GRID + Calib3d.CALIB_CB_CLUSTERING);
+			boolean found2 = Calib3d.findCirclesGrid(frame2Gray, boardSize, camera2Corners, Calib3d.CALIB_CB_ASYMMETRIC_GRID + Calib3d.CALIB_CB_CLUSTERING);
+			Metrics.timer("detect").recordSince(start);
 			
-			System.out.println("Camera 1 found: " + found1 + "\nCamera 2 found: " + found2);
+			Metrics.count(found1 ? "board.found" : "board.missed");
+			Metrics.count(found2 ? "board.found" : "board.missed");
 			
 			if(found1 && found2)
 			{
-				
 				Calib3d.drawChessboardCorners(frame1, boardSize, camera1Corners, found1);
 				Calib3d.drawChessboardCorners(frame2, boardSize, camera2Corners, found2);
 				
-				System.out.println("Done drawing corners");
-				
 				camera1Calibrated = true;
-				/*
-				currentTime = System.currentTimeMillis();
 				
-				if(currentTime - prevTime > 500 && !camera1Calibrated)
+				//Only still views that add coverage or a new pose become snapshots
+				if(keyframes.offer(camera1Corners, frame1.size()))
 				{
 					takeSnapshot();
-					prevTime = currentTime;
 				}
-				*/
-				
-				
 			}
 			else
 			{
 				camera1Calibrated = false;
+				keyframes.lost();
 			}
 		}
 	}
 	
-	private void takeSnapshot()
+	//Frame loop, locked against loadSnapshots() replacing the views
+	private synchronized void takeSnapshot()
 	{
 		if(numFrames < numFramesToCalib)
 		{
 			System.out.println("Taking snapshot");
-			camera1Points.add(camera1Corners);
-			camera2Points.add(camera2Corners);
+			//Copies, detection keeps writing into camera1Corners and camera2Corners
+			MatOfPoint2f corners1 = new MatOfPoint2f(camera1Corners.clone());
+			MatOfPoint2f corners2 = new MatOfPoint2f(camera2Corners.clone());
+			
+			camera1Points.add(corners1);
+			camera2Points.add(corners2);
 			
 			objectPoints.add(cameraObj);
 			numFrames++;
+			
+			journal(Arrays.asList(corners1, corners2));
 		}
 		
 		if(numFrames == numFramesToCalib)
 		{
-			calibrateCameras();
+			calibrateCameras(frame1.size(), frame2.size());
 		}
 		
 		System.out.println("Done taking snapshot");
 	}
 	
-	private void calibrateCameras()
+	private void journal(List<Mat> corners)
 	{
-		List<Mat> rvecs1 = new ArrayList<>();
-		List<Mat> tvecs1 = new ArrayList<>();
-		List<Mat> rvecs2 = new ArrayList<>();
-		List<Mat> tvecs2 = new ArrayList<>();
-		
-		camera1Intrinsic.put(0, 0, 1);
-		camera1Intrinsic.put(1, 1, 1);
-		camera2Intrinsic.put(0, 0, 1);
-		camera2Intrinsic.put(1, 1, 1);
-		
-		double error1 = Calib3d.calibrateCamera(objectPoints, camera1Points, frame1.size(), camera1Intrinsic, camera1Dist, rvecs1, tvecs1);
-		double error2 = Calib3d.calibrateCamera(objectPoints, camera2Points, frame2.size(), camera2Intrinsic, camera2Dist, rvecs2, tvecs2);
-		
-		System.out.println("Camera 1 Intrinsics:\n" + camera1Intrinsic.dump());
-		System.out.println("Camera 1 Distortion Coeffs:\n" + camera1Dist.dump());
-		
-		System.out.println("Camera 2 Intrinsics:\n" + camera2Intrinsic.dump());
-		System.out.println("Camera 2 Distortion Coeffs:\n" + camera2Dist.dump());
-		
-		System.out.println("Camera 1 error: " + error1 + "\nCamera 2 error: " + error2);
+		if(journalFile == null)
+		{
+			return;
+		}
 		
-		camera1Calibrated = true;
-		camera2Calibrated = true;
+		try
+		{
+			if(journal == null)
+			{
+				journal = SnapshotJournal.open(journalFile, 2, cameraObj, frame1.size());
+			}
+			
+			journal.append(corners);
+		}
+		catch(IOException e)
+		{
+			System.err.println("Could not write snapshot journal " + journalFile + ": " + e.getMessage());
+			journalFile = null;
+		}
 	}
 	
-	private void updateImageView(ImageView toUpdate, Image image)
+	//Calibrates from the circle grids saved by earlier sessions, no cameras needed
+	@FXML
+	private void loadSnapshots()
 	{
-		onFXThread(toUpdate.imageProperty(), image);
-	}
-
-	private <T> void onFXThread(ObjectProperty<T> property, T value) {
-		Platform.runLater(() -> {
-			property.set(value);
-		});
-	}
-	
-	private Image mat2Image(Mat frame) {
-		if(frame.type() != CvType.CV_8U)
+		if(journalFile == null || !journalFile.exists())
 		{
-			frame.convertTo(frame, CvType.CV_8U);
+			return;
 		}
+		
+		if(calibrationJob != null && !calibrationJob.isDone())
+		{
+			System.out.println("Still calibrating, load the snapshots again afterwards");
+			return;
+		}
+		
+		SnapshotJournal saved = journal;
+		
 		try
 		{
-			return SwingFXUtils.toFXImage(matToBufferedImage(frame), null);
+			if(saved == null)
+			{
+				saved = SnapshotJournal.load(journalFile);
+			}
+			
+			if(saved.getCameras() != 2 || saved.getPoints() != cameraObj.total())
+			{
+				System.out.println(journalFile + " does not match the cameras and circle grid");
+				return;
+			}
+			
+			synchronized(this)
+			{
+				camera1Points.clear();
+				camera1Points.addAll(saved.loadImagePoints(0));
+				camera2Points.clear();
+				camera2Points.addAll(saved.loadImagePoints(1));
+				objectPoints.clear();
+				objectPoints.addAll(saved.loadObjectPoints());
+				numFrames = objectPoints.size();
+				
+				System.out.println("Loaded " + numFrames + " snapshots");
+				keyframes.reset();
+				
+				if(numFrames > 0)
+				{
+					calibrateCameras(saved.getImageSize(), saved.getImageSize());
+				}
+			}
 		}
-		catch (Exception e)
+		catch(IOException e)
 		{
-			System.err.println("Cannot convert the Mat obejct: " + e);
-			return null;
+			System.err.println("Could not read snapshot journal " + journalFile + ": " + e.getMessage());
 		}
-	}
-	
-	private BufferedImage matToBufferedImage(Mat original) {
-		// init
-		int type = 0;
-		
-		if(original.channels() == 1)
+		finally
 		{
-			type = BufferedImage.TYPE_BYTE_GRAY;
+			if(saved != null && saved != journal)
+			{
+				saved.close();
+			}
 		}
-		else if(original.channels() == 3)
+	}
+	
+	private void calibrateCameras(Size size1, Size size2)
+	{
+		if(calibrationJob != null && !calibrationJob.isDone())
 		{
-			type = BufferedImage.TYPE_3BYTE_BGR;
+			return;
 		}
 		
-		BufferedImage image = new BufferedImage(original.width(), original.height(), type);
-		WritableRaster raster = image.getRaster();
-		DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
-		
-		byte[] data = dataBuffer.getData();
+		List<Mat> objects = new ArrayList<>(objectPoints);
+		List<Mat> points1 = new ArrayList<>(camera1Points);
+		List<Mat> points2 = new ArrayList<>(camera2Points);
 		
-		original.get(0, 0, data);
-		return image;
+		//Both cameras are solved at the same time on the calibration service, frames keep flowing in the meantime
+		calibrationJob = calibration.submit("cameras", job -> {
+			Mat intrinsic1 = Mat.eye(3, 3, CvType.CV_64F);
+			Mat intrinsic2 = Mat.eye(3, 3, CvType.CV_64F);
+			Mat dist1 = Mat.zeros(8, 1, CvType.CV_64F);
+			Mat dist2 = Mat.zeros(8, 1, CvType.CV_64F);
+			
+			job.progress(0, "Calibrating cameras");
+			
+			List<Double> errors = calibration.solveAll(job, Arrays.<Callable<Double>>asList(
+					() -> Calib3d.calibrateCamera(objects, points1, size1, intrinsic1, dist1, new ArrayList<>(), new ArrayList<>()),
+					() -> Calib3d.calibrateCamera(objects, points2, size2, intrinsic2, dist2, new ArrayList<>(), new ArrayList<>())));
+			
+			job.checkCancelled();
+			
+			System.out.println("Camera 1 Intrinsics:\n" + intrinsic1.dump());
+			System.out.println("Camera 1 Distortion Coeffs:\n" + dist1.dump());
+			
+			System.out.println("Camera 2 Intrinsics:\n" + intrinsic2.dump());
+			System.out.println("Camera 2 Distortion Coeffs:\n" + dist2.dump());
+			
+			System.out.println("Camera 1 error: " + errors.get(0) + "\nCamera 2 error: " + errors.get(1));
+			
+			//Publish the results before raising the flags the frame loop checks
+			camera1Intrinsic = intrinsic1;
+			camera2Intrinsic = intrinsic2;
+			camera1Dist = dist1;
+			camera2Dist = dist2;
+			
+			camera1Calibrated = true;
+			camera2Calibrated = true;
+			
+			return errors;
+		}, new CalibrationListener<List<Double>>() {
+		});
 	}
 }
-
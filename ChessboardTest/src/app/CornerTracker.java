@@ -0,0 +1,233 @@
+package app;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.Video;
+
+//Carries the board's corners from one frame to the next with pyramidal Lucas-Kanade flow.
+//A tracked result is only accepted if every corner was followed and the points still fit a homography of the flat
+//grid, otherwise the tracker drops the board and the detector has to find it again.
+//Flow only runs on a window around the board, so its cost follows the board's size rather than the frame's.
+public class CornerTracker {
+	
+	public static final String REFRESH_PROPERTY = "chessboard.trackRefresh";
+	
+	private int refreshInterval;
+	private double maxGridError;
+	
+	//previousGray only holds the area around the board, previousCorners are relative to it
+	private Rect area;
+	private Mat previousGray;
+	private MatOfPoint2f previousCorners;
+	private MatOfPoint2f nextCorners;
+	private MatOfByte status;
+	private MatOfFloat error;
+	
+	private MatOfPoint2f grid;
+	private Mat projected;
+	
+	private Size flowWindow;
+	private TermCriteria flowTerm;
+	private Size subPixWindow;
+	private Size subPixZeroZone;
+	private TermCriteria subPixTerm;
+	
+	private byte[] found;
+	private float[] points;
+	private boolean tracking;
+	private int trackedFrames;
+	
+	public CornerTracker(Size boardSize) {
+		this(boardSize, Integer.getInteger(REFRESH_PROPERTY, 15));
+	}
+	
+	//refreshInterval is how many frames in a row may be tracked before a full detection is forced again
+	public CornerTracker(Size boardSize, int refreshInterval) {
+		this.refreshInterval = refreshInterval;
+		
+		maxGridError = 1.5;
+		
+		previousGray = new Mat();
+		previousCorners = new MatOfPoint2f();
+		nextCorners = new MatOfPoint2f();
+		status = new MatOfByte();
+		error = new MatOfFloat();
+		projected = new Mat();
+		
+		//Board coordinates in the order findChessboardCorners reports them, row by row
+		int columns = (int) boardSize.width;
+		int rows = (int) boardSize.height;
+		float[] points = new float[columns * rows * 2];
+		
+		for(int i = 0; i < columns * rows; i++)
+		{
+			points[i * 2] = i % columns;
+			points[i * 2 + 1] = i / columns;
+		}
+		
+		grid = new MatOfPoint2f();
+		grid.create(columns * rows, 1, CvType.CV_32FC2);
+		grid.put(0, 0, points);
+		
+		flowWindow = new Size(21, 21);
+		flowTerm = new TermCriteria(TermCriteria.COUNT + TermCriteria.EPS, 20, 0.03);
+		subPixWindow = new Size(5, 5);
+		subPixZeroZone = new Size(-1, -1);
+		subPixTerm = new TermCriteria(TermCriteria.COUNT + TermCriteria.EPS, 10, 0.01);
+		
+		found = new byte[columns * rows];
+		this.points = new float[columns * rows * 2];
+		tracking = false;
+		trackedFrames = 0;
+	}
+	
+	//True while the last frame's corners are known and the refresh interval has not run out
+	public boolean canTrack()
+	{
+		return tracking && trackedFrames < refreshInterval;
+	}
+	
+	//Starts tracking from corners that were just detected in gray
+	public void start(Mat gray, MatOfPoint2f corners)
+	{
+		if(corners.total() * 2 != points.length)
+		{
+			tracking = false;
+			return;
+		}
+		
+		remember(gray, corners);
+		
+		tracking = true;
+		trackedFrames = 0;
+	}
+	
+	public void lost()
+	{
+		tracking = false;
+	}
+	
+	public boolean track(Mat gray, MatOfPoint2f corners)
+	{
+		if(!tracking)
+		{
+			return false;
+		}
+		
+		Mat next = gray.submat(area);
+		
+		Video.calcOpticalFlowPyrLK(previousGray, next, previousCorners, nextCorners, status, error, flowWindow, 2, flowTerm, 0, 1e-4);
+		
+		if(!allFound() || !fitsGrid())
+		{
+			next.release();
+			tracking = false;
+			return false;
+		}
+		
+		long start = System.nanoTime();
+		Imgproc.cornerSubPix(next, nextCorners, subPixWindow, subPixZeroZone, subPixTerm);
+		Metrics.timer("cornerSubPix").recordSince(start);
+		next.release();
+		
+		offset(nextCorners, corners, area.x, area.y);
+		remember(gray, corners);
+		trackedFrames++;
+		
+		return true;
+	}
+	
+	//Keeps the part of the frame around the board, with room for it to move before the next frame
+	private void remember(Mat gray, MatOfPoint2f corners)
+	{
+		corners.get(0, 0, points);
+		
+		float minX = Float.MAX_VALUE;
+		float minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE;
+		float maxY = -Float.MAX_VALUE;
+		
+		for(int i = 0; i < points.length; i += 2)
+		{
+			minX = Math.min(minX, points[i]);
+			maxX = Math.max(maxX, points[i]);
+			minY = Math.min(minY, points[i + 1]);
+			maxY = Math.max(maxY, points[i + 1]);
+		}
+		
+		int margin = (int) (Math.max(maxX - minX, maxY - minY) / 4) + (int) flowWindow.width * 2;
+		int x = Math.max(0, (int) minX - margin);
+		int y = Math.max(0, (int) minY - margin);
+		int right = Math.min(gray.cols(), (int) maxX + margin);
+		int bottom = Math.min(gray.rows(), (int) maxY + margin);
+		
+		area = new Rect(x, y, right - x, bottom - y);
+		
+		Mat patch = gray.submat(area);
+		patch.copyTo(previousGray);
+		patch.release();
+		
+		offset(corners, previousCorners, -area.x, -area.y);
+	}
+	
+	private void offset(MatOfPoint2f from, MatOfPoint2f to, float x, float y)
+	{
+		from.get(0, 0, points);
+		
+		for(int i = 0; i < points.length; i += 2)
+		{
+			points[i] += x;
+			points[i + 1] += y;
+		}
+		
+		to.create((int) from.total(), 1, CvType.CV_32FC2);
+		to.put(0, 0, points);
+	}
+	
+	private boolean allFound()
+	{
+		if(status.total() != found.length)
+		{
+			return false;
+		}
+		
+		status.get(0, 0, found);
+		
+		for(byte flag : found)
+		{
+			if(flag == 0)
+			{
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	//A view of a flat grid is a homography of it, points that drifted apart from each other will not fit one
+	private boolean fitsGrid()
+	{
+		Mat homography = Calib3d.findHomography(grid, nextCorners);
+		
+		if(homography.empty())
+		{
+			return false;
+		}
+		
+		Core.perspectiveTransform(grid, projected, homography);
+		homography.release();
+		
+		double rms = Core.norm(projected, nextCorners, Core.NORM_L2) / Math.sqrt(found.length);
+		
+		return rms <= maxGridError;
+	}
+}
@@ -0,0 +1,54 @@
+package app;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javafx.animation.AnimationTimer;
+
+//Paints every registered MatView once per JavaFX pulse. Frames published in between simply replace each other,
+//so a slow FX thread drops frames instead of queueing them.
+public class DisplayPump extends AnimationTimer {
+	
+	private List<MatView> views;
+	
+	public DisplayPump() {
+		views = new CopyOnWriteArrayList<>();
+		
+		Metrics.gauge("display.dropped", this::getDroppedFrames);
+	}
+	
+	public MatView register(MatView view)
+	{
+		views.add(view);
+		return view;
+	}
+	
+	@Override
+	public void handle(long now)
+	{
+		boolean painted = false;
+		
+		for(MatView view : views)
+		{
+			painted |= view.paint();
+		}
+		
+		//Display frame rate, counted once per pulse that put anything new on screen
+		if(painted)
+		{
+			Metrics.rate("display").tick();
+		}
+	}
+	
+	public long getDroppedFrames()
+	{
+		long dropped = 0;
+		
+		for(MatView view : views)
+		{
+			dropped += view.getDroppedFrames();
+		}
+		
+		return dropped;
+	}
+}
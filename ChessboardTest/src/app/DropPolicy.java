@@ -0,0 +1,18 @@
+package app;
+
+//What a full hand-off queue does with one more frame set
+public enum DropPolicy {
+	//Wait for room, nothing is lost (replay)
+	BLOCK,
+	//Throw away the oldest queued set, downstream always gets the newest frames (live)
+	DROP_OLDEST,
+	//Throw away the incoming set, downstream finishes what it already has
+	DROP_NEWEST;
+	
+	public static DropPolicy fromProperty(String property, DropPolicy fallback)
+	{
+		String value = System.getProperty(property);
+		
+		return value == null ? fallback : valueOf(value.trim().toUpperCase());
+	}
+}
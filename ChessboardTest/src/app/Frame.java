@@ -0,0 +1,71 @@
+package app;
+
+import org.opencv.core.Mat;
+
+//One image from one camera, stamped with System.nanoTime() as soon as grab() returned.
+//The image usually belongs to a MatPool and must be given back with release() once the frame is done.
+public class Frame {
+	
+	private int camera;
+	private long sequence;
+	private long timestamp;
+	private Mat image;
+	private MatPool pool;
+	private boolean released;
+	
+	public Frame(int camera, long sequence, long timestamp, Mat image, MatPool pool) {
+		this.camera = camera;
+		this.sequence = sequence;
+		this.timestamp = timestamp;
+		this.image = image;
+		this.pool = pool;
+		
+		released = false;
+	}
+	
+	public int getCamera()
+	{
+		return camera;
+	}
+	
+	public long getSequence()
+	{
+		return sequence;
+	}
+	
+	public long getTimestamp()
+	{
+		return timestamp;
+	}
+	
+	public Mat getImage()
+	{
+		return image;
+	}
+	
+	//Hands the buffer back to its pool, safe to call more than once
+	public synchronized void release()
+	{
+		if(released)
+		{
+			return;
+		}
+		
+		released = true;
+		
+		if(pool != null)
+		{
+			pool.release(image);
+		}
+		else
+		{
+			image.release();
+		}
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "Frame " + sequence + " of camera " + camera + " at " + timestamp + "ns";
+	}
+}
@@ -0,0 +1,68 @@
+package app;
+
+import java.util.concurrent.TimeUnit;
+
+//Gives every frame set a deadline: its capture time plus one frame interval of the cameras, measured from the sets as
+//they arrive, so a 60 fps rig gets about 16 ms and a 15 fps one 66 ms without any configuration.
+//  -Dchessboard.frameBudgetMs=20      a fixed budget instead
+//Work that would end past the deadline while a newer set is already waiting is skipped or its set dropped, see
+//FramePipeline and Controller2. Without a backlog a late set is still processed, nothing queues behind it.
+public class FrameDeadlines {
+	
+	public static final String BUDGET_PROPERTY = "chessboard.frameBudgetMs";
+	
+	//Weight of the newest interval, a few dozen sets to settle
+	private static final double SMOOTHING = 0.05;
+	
+	private long fixedBudget;
+	private double interval;
+	private long lastTimestamp;
+	
+	public FrameDeadlines() {
+		fixedBudget = TimeUnit.MILLISECONDS.toNanos(Long.getLong(BUDGET_PROPERTY, 0));
+		interval = 0;
+		lastTimestamp = 0;
+		
+		Metrics.gauge("deadline.budgetUs", () -> TimeUnit.NANOSECONDS.toMicros(getBudget()));
+	}
+	
+	//Capture side, once per set in capture order. 0 (no deadline) until the camera interval is known.
+	public synchronized long deadline(long timestamp)
+	{
+		if(lastTimestamp != 0 && timestamp > lastTimestamp)
+		{
+			long sample = timestamp - lastTimestamp;
+			
+			//A stall or a paused source says nothing about the frame rate
+			if(interval == 0)
+			{
+				interval = sample;
+			}
+			else if(sample < 4 * interval)
+			{
+				interval += SMOOTHING * (sample - interval);
+			}
+		}
+		
+		lastTimestamp = timestamp;
+		long budget = getBudget();
+		
+		return budget == 0 ? 0 : timestamp + budget;
+	}
+	
+	public synchronized long getBudget()
+	{
+		return fixedBudget != 0 ? fixedBudget : (long) interval;
+	}
+	
+	//True when work that usually takes as long as the median of cost would still end before the deadline
+	public static boolean fits(long deadline, LatencyHistogram cost)
+	{
+		return deadline == 0 || System.nanoTime() + (long) (cost.getPercentileMillis(50) * 1e6) <= deadline;
+	}
+	
+	public static boolean isLate(long deadline)
+	{
+		return deadline != 0 && System.nanoTime() > deadline;
+	}
+}
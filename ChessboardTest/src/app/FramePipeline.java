@@ -0,0 +1,250 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//Capture -> stage -> stage -> ... each on its own thread, connected by bounded FrameQueues.
+//A slow stage only fills or drops from its own input queue, it never holds up capture or the stages before it.
+//Live sets also carry a deadline from FrameDeadlines. A stage that gets a set while a newer one is already queued
+//behind it skips its work when it is optional and would overrun, or drops the set when that is already late.
+public class FramePipeline {
+	
+	public static final String QUEUE_SIZE_PROPERTY = "chessboard.queueSize";
+	public static final String DROP_POLICY_PROPERTY = "chessboard.dropPolicy";
+	
+	private List<String> names;
+	private List<FrameProcessor> processors;
+	private List<Boolean> optional;
+	private List<FrameQueue> queues;
+	private List<Thread> workers;
+	
+	private int queueSize;
+	private DropPolicy policy;
+	private FrameDeadlines deadlines;
+	
+	private SynchronizedCapture capture;
+	private volatile boolean running;
+	
+	public FramePipeline(boolean replay) {
+		names = new ArrayList<>();
+		processors = new ArrayList<>();
+		optional = new ArrayList<>();
+		queues = new ArrayList<>();
+		workers = new ArrayList<>();
+		
+		//Replay must not lose recorded frames, live capture wants the newest ones
+		queueSize = Integer.getInteger(QUEUE_SIZE_PROPERTY, 2);
+		policy = DropPolicy.fromProperty(DROP_POLICY_PROPERTY, replay ? DropPolicy.BLOCK : DropPolicy.DROP_OLDEST);
+		deadlines = replay ? null : new FrameDeadlines();
+		
+		running = false;
+	}
+	
+	public void addStage(String name, FrameProcessor processor)
+	{
+		addStage(name, processor, false);
+	}
+	
+	//Work a set can go without, like detection or depth. Under deadline pressure the set is passed on untouched.
+	public void addOptionalStage(String name, FrameProcessor processor)
+	{
+		addStage(name, processor, true);
+	}
+	
+	private void addStage(String name, FrameProcessor processor, boolean skippable)
+	{
+		FrameQueue queue = new FrameQueue(queueSize, policy);
+		
+		names.add(name);
+		processors.add(processor);
+		optional.add(skippable);
+		queues.add(queue);
+		
+		Metrics.gauge("queue." + name + ".dropped", queue::getDroppedSets);
+	}
+	
+	//How many sets can be queued or in a stage at once, capture pools have to be at least this big
+	public int getCapacity()
+	{
+		return processors.size() * (queueSize + 1);
+	}
+	
+	public void start(SynchronizedCapture capture)
+	{
+		this.capture = capture;
+		running = true;
+		
+		capture.start();
+		
+		startWorker("capture", this::capture);
+		
+		for(int i = 0; i < processors.size(); i++)
+		{
+			final int stage = i;
+			startWorker(names.get(i), () -> process(stage));
+		}
+	}
+	
+	public void stop()
+	{
+		running = false;
+		
+		if(capture != null)
+		{
+			capture.stop();
+		}
+		
+		for(FrameQueue queue : queues)
+		{
+			queue.clear();
+		}
+		
+		for(Thread worker : workers)
+		{
+			worker.interrupt();
+		}
+	}
+	
+	public boolean isRunning()
+	{
+		return running;
+	}
+	
+	public String getStageName(int stage)
+	{
+		return names.get(stage);
+	}
+	
+	public int getStageCount()
+	{
+		return processors.size();
+	}
+	
+	//Input queue of a stage
+	public FrameQueue getQueue(int stage)
+	{
+		return queues.get(stage);
+	}
+	
+	private void startWorker(String name, Runnable work)
+	{
+		Thread worker = new Thread(work, "pipeline-" + name);
+		worker.setDaemon(true);
+		workers.add(worker);
+		worker.start();
+	}
+	
+	private void capture()
+	{
+		FrameQueue output = queues.get(0);
+		
+		try
+		{
+			while(running)
+			{
+				Frame[] frames = capture.next(100, TimeUnit.MILLISECONDS);
+				
+				if(frames != null)
+				{
+					FrameSet set = new FrameSet(frames);
+					
+					if(deadlines != null)
+					{
+						set.setDeadline(deadlines.deadline(set.getTimestamp()));
+					}
+					
+					output.put(set);
+				}
+				else if(!capture.isRunning())
+				{
+					break;
+				}
+			}
+		}
+		catch(InterruptedException e)
+		{
+			//stop() was called
+		}
+		
+		output.finish();
+	}
+	
+	private void process(int stage)
+	{
+		String name = names.get(stage);
+		LatencyHistogram timer = Metrics.timer("stage." + name);
+		LatencyHistogram latency = Metrics.timer("latency.pipeline");
+		FrameProcessor processor = processors.get(stage);
+		FrameQueue input = queues.get(stage);
+		FrameQueue output = stage + 1 < queues.size() ? queues.get(stage + 1) : null;
+		boolean skippable = optional.get(stage);
+		
+		try
+		{
+			while(running)
+			{
+				FrameSet set = input.take(100, TimeUnit.MILLISECONDS);
+				
+				if(set == null)
+				{
+					if(input.isDrained())
+					{
+						break;
+					}
+					continue;
+				}
+				
+				boolean keep;
+				long start = System.nanoTime();
+				
+				//Behind with a newer set waiting: finishing this one late would only push that one past its deadline too
+				if(set.getDeadline() != 0 && input.size() > 0 &&
+						(skippable ? !FrameDeadlines.fits(set.getDeadline(), timer) : FrameDeadlines.isLate(set.getDeadline())))
+				{
+					Metrics.count(skippable ? "stage." + name + ".skipped" : "deadline.dropped");
+					keep = skippable;
+				}
+				else
+				{
+					try
+					{
+						keep = processor.process(set);
+					}
+					catch(RuntimeException e)
+					{
+						System.err.println("Stage " + name + " failed on set " + set.getSequence() + ": " + e);
+						keep = false;
+					}
+					
+					//Only real runs, so skipped sets do not make the stage look cheaper than it is
+					timer.recordSince(start);
+					
+					//Capture to the end of the last stage, a set dropped there was never shown and has no latency
+					if(output == null)
+					{
+						latency.record(System.nanoTime() - set.getTimestamp());
+					}
+				}
+				
+				if(keep && output != null)
+				{
+					output.put(set);
+				}
+				else
+				{
+					set.release();
+				}
+			}
+		}
+		catch(InterruptedException e)
+		{
+			//stop() was called
+		}
+		
+		if(output != null)
+		{
+			output.finish();
+		}
+	}
+}
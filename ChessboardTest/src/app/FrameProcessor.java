@@ -0,0 +1,7 @@
+package app;
+
+//The work one pipeline stage does on a set. Returning false drops the set instead of passing it on.
+public interface FrameProcessor {
+	
+	boolean process(FrameSet set) throws InterruptedException;
+}
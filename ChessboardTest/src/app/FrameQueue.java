@@ -0,0 +1,120 @@
+package app;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+//Bounded hand-off between two pipeline stages. Sets that the drop policy throws away are released right here.
+public class FrameQueue {
+	
+	private Deque<FrameSet> queue;
+	private int capacity;
+	private DropPolicy policy;
+	
+	private boolean finished;
+	private long dropped;
+	
+	public FrameQueue(int capacity, DropPolicy policy) {
+		this.capacity = capacity;
+		this.policy = policy;
+		
+		queue = new ArrayDeque<>(capacity);
+		finished = false;
+		dropped = 0;
+	}
+	
+	public synchronized void put(FrameSet set) throws InterruptedException
+	{
+		if(policy == DropPolicy.BLOCK)
+		{
+			while(queue.size() >= capacity && !finished)
+			{
+				wait();
+			}
+		}
+		
+		if(finished)
+		{
+			set.release();
+			return;
+		}
+		
+		if(queue.size() >= capacity)
+		{
+			dropped++;
+			
+			if(policy == DropPolicy.DROP_NEWEST)
+			{
+				set.release();
+				return;
+			}
+			
+			queue.pollFirst().release();
+		}
+		
+		queue.addLast(set);
+		notifyAll();
+	}
+	
+	//Null on timeout, or once the queue is finished and drained
+	public synchronized FrameSet take(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		
+		while(queue.isEmpty())
+		{
+			long remaining = deadline - System.nanoTime();
+			
+			if(finished || remaining <= 0)
+			{
+				return null;
+			}
+			
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		
+		FrameSet set = queue.pollFirst();
+		notifyAll();
+		
+		return set;
+	}
+	
+	//Upstream is done, queued sets can still be taken
+	public synchronized void finish()
+	{
+		finished = true;
+		notifyAll();
+	}
+	
+	public synchronized boolean isDrained()
+	{
+		return finished && queue.isEmpty();
+	}
+	
+	public synchronized void clear()
+	{
+		finished = true;
+		
+		while(!queue.isEmpty())
+		{
+			queue.pollFirst().release();
+		}
+		
+		notifyAll();
+	}
+	
+	public synchronized int size()
+	{
+		return queue.size();
+	}
+	
+	public int getCapacity()
+	{
+		return capacity;
+	}
+	
+	public synchronized long getDroppedSets()
+	{
+		return dropped;
+	}
+}
@@ -0,0 +1,514 @@
+package app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+//Records the raw frame sets of a capture into a FrameRecording directory:
+//  -Dchessboard.record=/path/to/recording       an empty or new directory
+//  -Dchessboard.record.segmentMB=512             size of every segment file
+//  -Dchessboard.record.buffers=8                 sets that may wait for the writer
+//record() only copies the images into one of a few staging buffers and returns, the recorder's own thread moves them
+//into the mapped segments and the index. When the disk falls behind and every buffer is taken the set is not recorded
+//and counted as dropped, the capture never waits for the recording.
+public class FrameRecorder {
+	
+	public static final String RECORD_PROPERTY = "chessboard.record";
+	public static final String SEGMENT_PROPERTY = "chessboard.record.segmentMB";
+	public static final String BUFFERS_PROPERTY = "chessboard.record.buffers";
+	
+	private static final int INITIAL_SETS = 1024;
+	
+	private File directory;
+	private int cameras;
+	private long segmentBytes;
+	
+	private Deque<Slot> free;
+	private Deque<Slot> pending;
+	private boolean closed;
+	private long dropped;
+	private long recorded;
+	
+	private Thread writer;
+	
+	//Writer thread only
+	private RandomAccessFile indexFile;
+	private MappedByteBuffer index;
+	private int recordSize;
+	private int capacity;
+	private int sets;
+	private long origin;
+	private Segment current;
+	private Segment next;
+	
+	//One set waiting for the writer, the arrays are kept and reused for the next set
+	private static class Slot {
+		long sequence;
+		long[] timestamps;
+		int[] rows;
+		int[] cols;
+		int[] types;
+		int[] lengths;
+		byte[][] data;
+		
+		Slot(int cameras) {
+			timestamps = new long[cameras];
+			rows = new int[cameras];
+			cols = new int[cameras];
+			types = new int[cameras];
+			lengths = new int[cameras];
+			data = new byte[cameras][];
+		}
+	}
+	
+	private static class Segment {
+		int number;
+		RandomAccessFile file;
+		MappedByteBuffer buffer;
+		int used;
+	}
+	
+	private FrameRecorder(File directory, int cameras, long segmentBytes, int buffers) {
+		this.directory = directory;
+		this.cameras = cameras;
+		this.segmentBytes = Math.min(segmentBytes, Integer.MAX_VALUE);
+		
+		free = new ArrayDeque<>(buffers);
+		pending = new ArrayDeque<>(buffers);
+		
+		for(int i = 0; i < buffers; i++)
+		{
+			free.add(new Slot(cameras));
+		}
+		
+		closed = false;
+		dropped = 0;
+		recorded = 0;
+		
+		recordSize = FrameRecording.recordSize(cameras);
+		sets = 0;
+	}
+	
+	public static FrameRecorder create(File directory, int cameras, long segmentBytes, int buffers) throws IOException
+	{
+		if(new File(directory, FrameRecording.INDEX_NAME).exists())
+		{
+			throw new IOException(directory + " already holds a recording");
+		}
+		
+		if(!directory.isDirectory() && !directory.mkdirs())
+		{
+			throw new IOException("Cannot create " + directory);
+		}
+		
+		FrameRecorder recorder = new FrameRecorder(directory, cameras, segmentBytes, Math.max(1, buffers));
+		recorder.createIndex();
+		
+		recorder.writer = new Thread(recorder::write, "recorder");
+		recorder.writer.setDaemon(true);
+		recorder.writer.start();
+		
+		//The controllers have no stop of their own, closing on exit trims the files and writes out what is still queued
+		Runtime.getRuntime().addShutdownHook(new Thread(recorder::close, "recorder-close"));
+		
+		Metrics.gauge("record.sets", recorder::getRecordedSets);
+		Metrics.gauge("record.dropped", recorder::getDroppedSets);
+		Metrics.gauge("record.pending", recorder::getPendingSets);
+		
+		return recorder;
+	}
+	
+	//Null unless -Dchessboard.record is set, or when the recording cannot be created
+	public static FrameRecorder fromProperties(int cameras)
+	{
+		String path = System.getProperty(RECORD_PROPERTY, "");
+		
+		if(path.isEmpty())
+		{
+			return null;
+		}
+		
+		try
+		{
+			FrameRecorder recorder = create(new File(path), cameras, Long.getLong(SEGMENT_PROPERTY, 512) << 20,
+					Integer.getInteger(BUFFERS_PROPERTY, 8));
+			System.out.println("Recording " + cameras + " cameras to " + path);
+			
+			return recorder;
+		}
+		catch(IOException e)
+		{
+			System.out.println("Not recording: " + e.getMessage());
+			return null;
+		}
+	}
+	
+	private void createIndex() throws IOException
+	{
+		indexFile = new RandomAccessFile(new File(directory, FrameRecording.INDEX_NAME), "rw");
+		mapIndex(INITIAL_SETS);
+		
+		index.putInt(0, FrameRecording.MAGIC);
+		index.putInt(4, FrameRecording.VERSION);
+		index.putInt(8, cameras);
+		index.putLong(FrameRecording.SEGMENT_BYTES_OFFSET, segmentBytes);
+		index.putLong(FrameRecording.SETS_OFFSET, 0);
+	}
+	
+	//Grows the file and maps it again, the old mapping goes away with the garbage collector
+	private void mapIndex(int capacity) throws IOException
+	{
+		this.capacity = capacity;
+		index = indexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FrameRecording.HEADER + (long) capacity * recordSize);
+		index.order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	//Capture side, called with the frames of one set before they go on to the stages. Never blocks, false when the set
+	//was not recorded.
+	public boolean record(Frame[] frames)
+	{
+		Slot slot;
+		
+		synchronized(this)
+		{
+			if(closed)
+			{
+				return false;
+			}
+			
+			slot = free.pollFirst();
+			
+			if(slot == null)
+			{
+				dropped++;
+				return false;
+			}
+		}
+		
+		boolean copied = frames.length == cameras;
+		
+		for(int i = 0; i < cameras && copied; i++)
+		{
+			copied = copy(frames[i], slot, i);
+		}
+		
+		synchronized(this)
+		{
+			if(copied)
+			{
+				pending.addLast(slot);
+				notifyAll();
+			}
+			else
+			{
+				dropped++;
+				free.addFirst(slot);
+			}
+		}
+		
+		return copied;
+	}
+	
+	//Mat.get only hands out the bytes of 8 bit images, which is what every source delivers
+	private static boolean copy(Frame frame, Slot slot, int camera)
+	{
+		Mat image = frame.getImage();
+		
+		if(image.empty() || CvType.depth(image.type()) != CvType.CV_8U)
+		{
+			return false;
+		}
+		
+		int bytes = (int) (image.total() * image.elemSize());
+		
+		if(slot.data[camera] == null || slot.data[camera].length < bytes)
+		{
+			slot.data[camera] = new byte[bytes];
+		}
+		
+		image.get(0, 0, slot.data[camera]);
+		
+		slot.sequence = frame.getSequence();
+		slot.timestamps[camera] = frame.getTimestamp();
+		slot.rows[camera] = image.rows();
+		slot.cols[camera] = image.cols();
+		slot.types[camera] = image.type();
+		slot.lengths[camera] = bytes;
+		
+		return true;
+	}
+	
+	//Stops taking sets, waits for the writer to store the queued ones and closes the files. Safe to call more than once.
+	public void close()
+	{
+		synchronized(this)
+		{
+			closed = true;
+			notifyAll();
+		}
+		
+		if(Thread.currentThread() == writer)
+		{
+			return;
+		}
+		
+		try
+		{
+			writer.join();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void write()
+	{
+		try
+		{
+			while(true)
+			{
+				Slot slot = take();
+				
+				if(slot == null)
+				{
+					break;
+				}
+				
+				try
+				{
+					append(slot);
+				}
+				finally
+				{
+					synchronized(this)
+					{
+						free.addLast(slot);
+					}
+				}
+			}
+		}
+		catch(IOException | RuntimeException e)
+		{
+			System.err.println("Recording to " + directory + " stopped: " + e);
+			
+			synchronized(this)
+			{
+				closed = true;
+				dropped += pending.size();
+				free.addAll(pending);
+				pending.clear();
+			}
+		}
+		
+		finish();
+	}
+	
+	//Next queued set, null once closed and everything queued is written
+	private synchronized Slot take()
+	{
+		while(pending.isEmpty() && !closed)
+		{
+			try
+			{
+				wait();
+			}
+			catch(InterruptedException e)
+			{
+				closed = true;
+			}
+		}
+		
+		return pending.pollFirst();
+	}
+	
+	private void append(Slot slot) throws IOException
+	{
+		long bytes = 0;
+		long time = Long.MAX_VALUE;
+		
+		for(int i = 0; i < cameras; i++)
+		{
+			bytes += slot.lengths[i];
+			time = Math.min(time, slot.timestamps[i]);
+		}
+		
+		if(current == null || current.used + bytes > current.buffer.capacity())
+		{
+			nextSegment(bytes);
+		}
+		
+		int offset = current.used;
+		current.buffer.position(offset);
+		
+		for(int i = 0; i < cameras; i++)
+		{
+			current.buffer.put(slot.data[i], 0, slot.lengths[i]);
+		}
+		
+		current.used += bytes;
+		
+		if(sets == 0)
+		{
+			origin = time;
+			index.putLong(FrameRecording.START_OFFSET, System.currentTimeMillis() - (System.nanoTime() - origin) / 1000000);
+		}
+		
+		if(sets == capacity)
+		{
+			mapIndex(capacity * 2);
+		}
+		
+		int record = FrameRecording.HEADER + sets * recordSize;
+		
+		index.putLong(record, slot.sequence);
+		index.putLong(record + 8, time - origin);
+		index.putInt(record + 16, current.number);
+		index.putInt(record + 20, 0);
+		index.putLong(record + 24, offset);
+		
+		for(int i = 0; i < cameras; i++)
+		{
+			int camera = record + FrameRecording.SET_BYTES + i * FrameRecording.CAMERA_BYTES;
+			
+			index.putLong(camera, slot.timestamps[i] - origin);
+			index.putInt(camera + 8, slot.rows[i]);
+			index.putInt(camera + 12, slot.cols[i]);
+			index.putInt(camera + 16, slot.types[i]);
+			index.putInt(camera + 20, 0);
+		}
+		
+		//Count last, a set is only part of the recording once it is complete
+		sets++;
+		index.putLong(FrameRecording.SETS_OFFSET, sets);
+		
+		synchronized(this)
+		{
+			recorded++;
+		}
+	}
+	
+	//Switches to the segment that was set up in advance and reserves the one after it, so a full segment costs the
+	//writer a mapping instead of growing a file
+	private void nextSegment(long bytes) throws IOException
+	{
+		if(bytes > segmentBytes)
+		{
+			throw new IOException("A set of " + bytes + " bytes does not fit into segments of " + segmentBytes +
+					" bytes, raise " + SEGMENT_PROPERTY);
+		}
+		
+		if(current != null)
+		{
+			closeSegment(current);
+		}
+		
+		current = next != null ? next : reserveSegment(0);
+		current.buffer = current.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+		next = reserveSegment(current.number + 1);
+	}
+	
+	private Segment reserveSegment(int number) throws IOException
+	{
+		Segment segment = new Segment();
+		
+		segment.number = number;
+		segment.file = new RandomAccessFile(new File(directory, FrameRecording.segmentName(number)), "rw");
+		segment.file.setLength(segmentBytes);
+		segment.used = 0;
+		
+		return segment;
+	}
+	
+	//Cuts the file down to what was written. Systems that refuse to shrink a mapped file keep the full size, the
+	//index says where the data ends either way.
+	private void closeSegment(Segment segment)
+	{
+		try
+		{
+			if(segment.buffer != null)
+			{
+				segment.buffer.force();
+			}
+			
+			try
+			{
+				segment.file.setLength(segment.used);
+			}
+			catch(IOException e)
+			{
+				//Still mapped
+			}
+			
+			segment.file.close();
+		}
+		catch(IOException e)
+		{
+			System.err.println("Could not close " + FrameRecording.segmentName(segment.number) + ": " + e.getMessage());
+		}
+	}
+	
+	private void finish()
+	{
+		if(current != null)
+		{
+			closeSegment(current);
+		}
+		
+		if(next != null)
+		{
+			closeSegment(next);
+			new File(directory, FrameRecording.segmentName(next.number)).delete();
+		}
+		
+		try
+		{
+			index.force();
+			
+			try
+			{
+				indexFile.setLength(FrameRecording.HEADER + (long) sets * recordSize);
+			}
+			catch(IOException e)
+			{
+				//Still mapped
+			}
+			
+			indexFile.close();
+		}
+		catch(IOException e)
+		{
+			System.err.println("Could not close recording index: " + e.getMessage());
+		}
+		
+		System.out.println("Recorded " + sets + " sets to " + directory + ", " + getDroppedSets() + " dropped");
+	}
+	
+	public synchronized long getRecordedSets()
+	{
+		return recorded;
+	}
+	
+	public synchronized long getDroppedSets()
+	{
+		return dropped;
+	}
+	
+	public synchronized long getPendingSets()
+	{
+		return pending.size();
+	}
+	
+	public File getDirectory()
+	{
+		return directory;
+	}
+}
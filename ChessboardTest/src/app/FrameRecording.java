@@ -0,0 +1,264 @@
+package app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+//Read side of a raw recording made by FrameRecorder: a directory with one index and any number of segment files.
+//The index has a fixed size record per frame set, so set i is found without reading anything before it and a time is
+//found by binary search. The frames themselves are plain Mat bytes, copied straight out of the segment mapping.
+//
+//frames.cbi (little endian):
+//  int magic, int version, int cameras, int reserved, long start (wall clock ms of set 0), long segment bytes, long sets,
+//  padding up to 64 bytes
+//  per set: long sequence, long time (ns since set 0), int segment, int reserved, long offset,
+//           per camera: long time (ns since set 0), int rows, int cols, int type, int reserved
+//segment_0000.cbr, segment_0001.cbr ...: the images of every camera of a set back to back, sets never straddle segments
+public class FrameRecording {
+	
+	public static final String INDEX_NAME = "frames.cbi";
+	
+	static final int MAGIC = 0x43425231; //CBR1
+	static final int VERSION = 1;
+	static final int HEADER = 64;
+	static final int START_OFFSET = 16;
+	static final int SEGMENT_BYTES_OFFSET = 24;
+	static final int SETS_OFFSET = 32;
+	static final int SET_BYTES = 32;
+	static final int CAMERA_BYTES = 24;
+	
+	private File directory;
+	private RandomAccessFile file;
+	private MappedByteBuffer index;
+	
+	private int cameras;
+	private long start;
+	private int sets;
+	private int recordSize;
+	
+	//Mapped on first use, a replay that only looks at the start never touches the later files
+	private MappedByteBuffer[] segments;
+	
+	private FrameRecording(File directory) {
+		this.directory = directory;
+	}
+	
+	public static FrameRecording open(File directory) throws IOException
+	{
+		FrameRecording recording = new FrameRecording(directory);
+		
+		try
+		{
+			recording.readIndex();
+		}
+		catch(IOException e)
+		{
+			recording.close();
+			throw e;
+		}
+		
+		return recording;
+	}
+	
+	private void readIndex() throws IOException
+	{
+		file = new RandomAccessFile(new File(directory, INDEX_NAME), "r");
+		FileChannel channel = file.getChannel();
+		
+		index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		index.order(ByteOrder.LITTLE_ENDIAN);
+		
+		if(channel.size() < HEADER || index.getInt(0) != MAGIC || index.getInt(4) != VERSION)
+		{
+			throw new IOException("Not a frame recording: " + directory);
+		}
+		
+		cameras = index.getInt(8);
+		start = index.getLong(START_OFFSET);
+		recordSize = recordSize(cameras);
+		
+		//The count is written after the record, anything past it was cut short
+		sets = (int) Math.min(index.getLong(SETS_OFFSET), (channel.size() - HEADER) / recordSize);
+		
+		int lastSegment = sets == 0 ? -1 : index.getInt(record(sets - 1) + 16);
+		segments = new MappedByteBuffer[lastSegment + 1];
+	}
+	
+	static int recordSize(int cameras)
+	{
+		return SET_BYTES + cameras * CAMERA_BYTES;
+	}
+	
+	static String segmentName(int segment)
+	{
+		return String.format(Locale.ROOT, "segment_%04d.cbr", segment);
+	}
+	
+	private int record(int set)
+	{
+		return HEADER + set * recordSize;
+	}
+	
+	private int camera(int set, int camera)
+	{
+		return record(set) + SET_BYTES + camera * CAMERA_BYTES;
+	}
+	
+	public int size()
+	{
+		return sets;
+	}
+	
+	public int getCameras()
+	{
+		return cameras;
+	}
+	
+	//Wall clock time of the first set in ms
+	public long getStart()
+	{
+		return start;
+	}
+	
+	public long getSequence(int set)
+	{
+		return index.getLong(record(set));
+	}
+	
+	//Nanoseconds since the first set, the earliest grab of the set like FrameSet.getTimestamp()
+	public long getTime(int set)
+	{
+		return index.getLong(record(set) + 8);
+	}
+	
+	public long getTime(int set, int camera)
+	{
+		return index.getLong(camera(set, camera));
+	}
+	
+	public long getDuration()
+	{
+		return sets == 0 ? 0 : getTime(sets - 1);
+	}
+	
+	//First set at or after the given time since the start, size() when the recording ends before it
+	public int find(long nanos)
+	{
+		int low = 0;
+		int high = sets;
+		
+		while(low < high)
+		{
+			int middle = (low + high) >>> 1;
+			
+			if(getTime(middle) < nanos)
+			{
+				low = middle + 1;
+			}
+			else
+			{
+				high = middle;
+			}
+		}
+		
+		return low;
+	}
+	
+	//Bytes of the largest image of one camera, enough for any scratch array handed to read()
+	public int getMaxFrameBytes(int camera)
+	{
+		int max = 0;
+		
+		for(int set = 0; set < sets; set++)
+		{
+			max = Math.max(max, frameBytes(set, camera));
+		}
+		
+		return max;
+	}
+	
+	private int frameBytes(int set, int camera)
+	{
+		int offset = camera(set, camera);
+		
+		return index.getInt(offset + 8) * index.getInt(offset + 12) * CvType.ELEM_SIZE(index.getInt(offset + 16));
+	}
+	
+	//Copies one recorded image into frame, reallocating it only when the size or type differs. scratch has to hold
+	//getMaxFrameBytes(camera), it is passed in so every reader thread can keep its own.
+	public boolean read(int set, int camera, Mat frame, byte[] scratch) throws IOException
+	{
+		if(set < 0 || set >= sets || camera < 0 || camera >= cameras)
+		{
+			return false;
+		}
+		
+		long offset = index.getLong(record(set) + 24);
+		
+		for(int i = 0; i < camera; i++)
+		{
+			offset += frameBytes(set, i);
+		}
+		
+		int header = camera(set, camera);
+		int bytes = frameBytes(set, camera);
+		ByteBuffer segment = segment(index.getInt(record(set) + 16)).duplicate();
+		
+		segment.position((int) offset);
+		segment.get(scratch, 0, bytes);
+		
+		frame.create(index.getInt(header + 8), index.getInt(header + 12), index.getInt(header + 16));
+		frame.put(0, 0, scratch);
+		
+		return true;
+	}
+	
+	private synchronized MappedByteBuffer segment(int segment) throws IOException
+	{
+		if(segments[segment] == null)
+		{
+			try(RandomAccessFile data = new RandomAccessFile(new File(directory, segmentName(segment)), "r"))
+			{
+				//The mapping stays valid after the file is closed
+				segments[segment] = data.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, data.length());
+			}
+		}
+		
+		return segments[segment];
+	}
+	
+	public File getDirectory()
+	{
+		return directory;
+	}
+	
+	public void close()
+	{
+		try
+		{
+			if(file != null)
+			{
+				file.close();
+			}
+		}
+		catch(IOException e)
+		{
+			System.err.println("Could not close recording index: " + e.getMessage());
+		}
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "Recording " + directory + ", " + sets + " sets of " + cameras + " cameras, " +
+				String.format(Locale.ROOT, "%.1f s", getDuration() / 1e9);
+	}
+}
@@ -0,0 +1,115 @@
+package app;
+
+//The frames of all cameras taken in one capture round, plus whatever the stages derived from them
+public class FrameSet {
+	
+	private Frame[] frames;
+	private Frame[] rectified;
+	private Frame disparity;
+	private Frame points;
+	private long deadline;
+	
+	public FrameSet(Frame[] frames) {
+		this.frames = frames;
+		
+		rectified = new Frame[frames.length];
+		deadline = 0;
+	}
+	
+	public int size()
+	{
+		return frames.length;
+	}
+	
+	public Frame getFrame(int camera)
+	{
+		return frames[camera];
+	}
+	
+	public Frame getRectified(int camera)
+	{
+		return rectified[camera];
+	}
+	
+	public void setRectified(int camera, Frame frame)
+	{
+		if(rectified[camera] != null)
+		{
+			rectified[camera].release();
+		}
+		
+		rectified[camera] = frame;
+	}
+	
+	//Disparity of the first two rectified cameras, CV_32F in pixels
+	public Frame getDisparity()
+	{
+		return disparity;
+	}
+	
+	//The disparity reprojected with Q, CV_32FC3
+	public Frame getPoints()
+	{
+		return points;
+	}
+	
+	public void setDepth(Frame disparity, Frame points)
+	{
+		if(this.disparity != null)
+		{
+			this.disparity.release();
+			this.points.release();
+		}
+		
+		this.disparity = disparity;
+		this.points = points;
+	}
+	
+	//Timestamp of the earliest grab in the set
+	public long getTimestamp()
+	{
+		long timestamp = frames[0].getTimestamp();
+		
+		for(Frame frame : frames)
+		{
+			timestamp = Math.min(timestamp, frame.getTimestamp());
+		}
+		
+		return timestamp;
+	}
+	
+	//System.nanoTime() by which the set should be through the pipeline, 0 when it has no deadline (replay)
+	public long getDeadline()
+	{
+		return deadline;
+	}
+	
+	public void setDeadline(long deadline)
+	{
+		this.deadline = deadline;
+	}
+	
+	public long getSequence()
+	{
+		return frames[0].getSequence();
+	}
+	
+	public void release()
+	{
+		for(int i = 0; i < frames.length; i++)
+		{
+			frames[i].release();
+			
+			if(rectified[i] != null)
+			{
+				rectified[i].release();
+			}
+		}
+		
+		if(disparity != null)
+		{
+			disparity.release();
+			points.release();
+		}
+	}
+}
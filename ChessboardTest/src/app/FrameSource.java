@@ -0,0 +1,25 @@
+package app;
+
+import org.opencv.core.Mat;
+
+//Anything the frame loop can pull images from: a live camera, a video file or a folder of recorded pairs
+public interface FrameSource {
+	
+	boolean open();
+	
+	boolean isOpened();
+	
+	boolean grab();
+	
+	boolean retrieve(Mat frame);
+	
+	void release();
+	
+	//Live devices pace themselves, recorded sources can be replayed as fast as the pipeline allows
+	boolean isLive();
+	
+	default boolean read(Mat frame)
+	{
+		return grab() && retrieve(frame);
+	}
+}
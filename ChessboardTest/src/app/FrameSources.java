@@ -0,0 +1,93 @@
+package app;
+
+import java.io.File;
+
+//Picks the frame sources for the controllers from system properties so the same build runs with or without cameras:
+//  -Dchessboard.source=camera                     live cameras 0 and 1 (default)
+//  -Dchessboard.source=images:/path/to/pairs      left*.png / right*.png in one directory
+//  -Dchessboard.source=video:/path/left.avi,/path/right.avi
+//  -Dchessboard.source=recording:/path/to/dir    raw sets written by FrameRecorder
+//  -Dchessboard.replay.start=12.5                 seconds into a recording to start from
+//  -Dchessboard.replay=fast                       ignore the 33 ms timer for recorded sources
+//  -Dchessboard.loop=false                        stop at the end of a recording instead of rewinding
+public final class FrameSources {
+	
+	public static final String SOURCE_PROPERTY = "chessboard.source";
+	public static final String REPLAY_PROPERTY = "chessboard.replay";
+	public static final String LOOP_PROPERTY = "chessboard.loop";
+	public static final String START_PROPERTY = "chessboard.replay.start";
+	
+	public static final String LEFT_PREFIX = "left";
+	public static final String RIGHT_PREFIX = "right";
+	
+	private FrameSources() {
+	}
+	
+	public static FrameSource create(int camera)
+	{
+		String spec = System.getProperty(SOURCE_PROPERTY, "camera");
+		boolean loop = Boolean.parseBoolean(System.getProperty(LOOP_PROPERTY, "true"));
+		
+		if(spec.startsWith("images:"))
+		{
+			return new ImageDirectoryFrameSource(new File(spec.substring("images:".length())), prefixFor(camera), loop);
+		}
+		else if(spec.startsWith("video:"))
+		{
+			String[] paths = spec.substring("video:".length()).split(",");
+			
+			if(camera >= paths.length)
+			{
+				throw new IllegalArgumentException("No video file given for camera " + camera + " in " + spec);
+			}
+			
+			return new VideoFileFrameSource(paths[camera].trim(), loop);
+		}
+		else if(spec.startsWith("recording:"))
+		{
+			long start = (long) (Double.parseDouble(System.getProperty(START_PROPERTY, "0")) * 1e9);
+			
+			return new RecordingFrameSource(new File(spec.substring("recording:".length())), camera, loop, start);
+		}
+		else if(spec.equals("camera"))
+		{
+			return new CameraFrameSource(camera);
+		}
+		
+		throw new IllegalArgumentException("Unknown frame source: " + spec);
+	}
+	
+	//left* and right* for a stereo pair, cam2*, cam3* ... for the rest of a larger rig
+	public static String prefixFor(int camera)
+	{
+		if(camera == 0)
+		{
+			return LEFT_PREFIX;
+		}
+		else if(camera == 1)
+		{
+			return RIGHT_PREFIX;
+		}
+		
+		return "cam" + camera;
+	}
+	
+	//Fast replay only applies when none of the sources is a live device
+	public static boolean isFastReplay(FrameSource... sources)
+	{
+		if(!"fast".equals(System.getProperty(REPLAY_PROPERTY, "realtime")))
+		{
+			return false;
+		}
+		
+		for(FrameSource source : sources)
+		{
+			if(source.isLive())
+			{
+				return false;
+			}
+		}
+		
+		return true;
+	}
+}
@@ -0,0 +1,221 @@
+package app;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+//Collects frames from every camera and hands out sets whose timestamps lie within maxSkew of the first camera's frame.
+//Live capture keeps only the newest frames, replay blocks the producers instead so no recorded frame is lost.
+public class FrameSynchronizer {
+	
+	private Deque<Frame>[] queues;
+	private int capacity;
+	private long maxSkew;
+	private boolean blocking;
+	
+	private boolean closed;
+	private long dropped;
+	
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public FrameSynchronizer(int cameras, int capacity, long maxSkew, TimeUnit unit, boolean blocking) {
+		this.capacity = capacity;
+		this.maxSkew = unit.toNanos(maxSkew);
+		this.blocking = blocking;
+		
+		queues = new Deque[cameras];
+		
+		for(int i = 0; i < cameras; i++)
+		{
+			queues[i] = new ArrayDeque<>(capacity);
+		}
+		
+		closed = false;
+		dropped = 0;
+	}
+	
+	public synchronized void offer(Frame frame) throws InterruptedException
+	{
+		Deque<Frame> queue = queues[frame.getCamera()];
+		
+		while(blocking && queue.size() >= capacity && !closed)
+		{
+			wait();
+		}
+		
+		if(closed)
+		{
+			discard(frame);
+			return;
+		}
+		
+		if(queue.size() >= capacity)
+		{
+			discard(queue.pollFirst());
+		}
+		
+		queue.addLast(frame);
+		notifyAll();
+	}
+	
+	//Returns one frame per camera, or null once the timeout passes or the capture has been closed
+	public synchronized Frame[] take(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		
+		while(true)
+		{
+			Frame[] set = match();
+			
+			if(set != null)
+			{
+				notifyAll();
+				return set;
+			}
+			
+			long remaining = deadline - System.nanoTime();
+			
+			if(closed || remaining <= 0)
+			{
+				return null;
+			}
+			
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+	}
+	
+	//True when every camera already has a frame queued, so the next set is waiting to be taken
+	public synchronized boolean hasBacklog()
+	{
+		for(Deque<Frame> queue : queues)
+		{
+			if(queue.isEmpty())
+			{
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	//No more frames will arrive, whatever is queued can still be taken
+	public synchronized void finish()
+	{
+		closed = true;
+		notifyAll();
+	}
+	
+	public synchronized void close()
+	{
+		closed = true;
+		
+		for(Deque<Frame> queue : queues)
+		{
+			while(!queue.isEmpty())
+			{
+				discard(queue.pollFirst());
+			}
+		}
+		
+		notifyAll();
+	}
+	
+	public synchronized long getDroppedFrames()
+	{
+		return dropped;
+	}
+	
+	private Frame[] match()
+	{
+		for(Deque<Frame> queue : queues)
+		{
+			if(queue.isEmpty())
+			{
+				return null;
+			}
+		}
+		
+		//Replay walks the reference camera oldest first so nothing is skipped, live capture wants the newest set
+		Iterator<Frame> candidates = blocking ? queues[0].iterator() : queues[0].descendingIterator();
+		
+		while(candidates.hasNext())
+		{
+			Frame reference = candidates.next();
+			Frame[] set = new Frame[queues.length];
+			set[0] = reference;
+			
+			boolean matched = true;
+			
+			for(int i = 1; i < queues.length && matched; i++)
+			{
+				set[i] = nearest(queues[i], reference.getTimestamp());
+				matched = Math.abs(set[i].getTimestamp() - reference.getTimestamp()) <= maxSkew;
+			}
+			
+			if(matched)
+			{
+				for(int i = 0; i < queues.length; i++)
+				{
+					removeUpTo(queues[i], set[i]);
+				}
+				
+				return set;
+			}
+		}
+		
+		//Nothing pairs up, make room so a full queue cannot stall the producers forever
+		Deque<Frame> fullest = queues[0];
+		
+		for(Deque<Frame> queue : queues)
+		{
+			if(queue.size() > fullest.size())
+			{
+				fullest = queue;
+			}
+		}
+		
+		if(fullest.size() >= capacity)
+		{
+			discard(fullest.pollFirst());
+		}
+		
+		return null;
+	}
+	
+	private Frame nearest(Deque<Frame> queue, long timestamp)
+	{
+		Frame best = null;
+		
+		for(Frame frame : queue)
+		{
+			if(best == null || Math.abs(frame.getTimestamp() - timestamp) < Math.abs(best.getTimestamp() - timestamp))
+			{
+				best = frame;
+			}
+		}
+		
+		return best;
+	}
+	
+	//Everything older than the frame handed out is stale now
+	private void removeUpTo(Deque<Frame> queue, Frame taken)
+	{
+		while(!queue.isEmpty())
+		{
+			Frame frame = queue.pollFirst();
+			
+			if(frame == taken)
+			{
+				return;
+			}
+			
+			discard(frame);
+		}
+	}
+	
+	private void discard(Frame frame)
+	{
+		dropped++;
+		frame.release();
+	}
+}
@@ -0,0 +1,321 @@
+package app;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.Size;
+
+//The exact answer for one synthetic stereo pair: both cameras, their stereo pose, the board pose seen from each camera
+//and where every corner or circle centre projects. Written by SyntheticTargets next to the images as truth_0001.txt for
+//left_0001.png / right_0001.png, one "key values..." line per item so it is easy to read from anything else too.
+//Lengths are in board units (one square, or the circle spacing), pixels have (0,0) at the centre of the top left pixel.
+public class GroundTruth {
+	
+	public static final String PREFIX = "truth";
+	
+	private String target;
+	private Size frameSize;
+	private Size patternSize;
+	private int cameras;
+	
+	private MatOfPoint3f objectPoints;
+	private Mat[] intrinsic;
+	private Mat[] distortion;
+	private Mat[] boardRotation;
+	private Mat[] boardTranslation;
+	private MatOfPoint2f[] imagePoints;
+	
+	//Of the second camera relative to the first, x2 = R x1 + T like stereoCalibrate
+	private Mat rotation;
+	private Mat translation;
+	
+	public GroundTruth(String target, Size frameSize, Size patternSize, int cameras) {
+		this.target = target;
+		this.frameSize = frameSize;
+		this.patternSize = patternSize;
+		this.cameras = cameras;
+		
+		objectPoints = new MatOfPoint3f();
+		intrinsic = new Mat[cameras];
+		distortion = new Mat[cameras];
+		boardRotation = new Mat[cameras];
+		boardTranslation = new Mat[cameras];
+		imagePoints = new MatOfPoint2f[cameras];
+		
+		rotation = Mat.eye(3, 3, CvType.CV_64F);
+		translation = Mat.zeros(3, 1, CvType.CV_64F);
+	}
+	
+	//truth_0001.txt, left_0001.png, right_0001.png ...
+	public static String name(String prefix, int index, String extension)
+	{
+		return String.format(Locale.ROOT, "%s_%04d.%s", prefix, index, extension);
+	}
+	
+	public void setCamera(int camera, Mat intrinsic, Mat distortion, Mat boardRotation, Mat boardTranslation, MatOfPoint2f imagePoints)
+	{
+		this.intrinsic[camera] = intrinsic;
+		this.distortion[camera] = distortion;
+		this.boardRotation[camera] = boardRotation;
+		this.boardTranslation[camera] = boardTranslation;
+		this.imagePoints[camera] = imagePoints;
+	}
+	
+	public void setStereo(Mat rotation, Mat translation)
+	{
+		this.rotation = rotation;
+		this.translation = translation;
+	}
+	
+	public void setObjectPoints(MatOfPoint3f objectPoints)
+	{
+		this.objectPoints = objectPoints;
+	}
+	
+	//RMS distance in pixels between detected points and the truth for one camera. Detectors may start the pattern at
+	//either end of a row or column, so the ordering that fits best is used. NaN when the point count does not match.
+	public double error(MatOfPoint2f detected, int camera)
+	{
+		float[] found = new float[(int) detected.total() * 2];
+		float[] expected = new float[(int) imagePoints[camera].total() * 2];
+		
+		if(found.length != expected.length || found.length == 0)
+		{
+			return Double.NaN;
+		}
+		
+		detected.get(0, 0, found);
+		imagePoints[camera].get(0, 0, expected);
+		
+		int columns = (int) patternSize.width;
+		int rows = expected.length / 2 / columns;
+		double best = Double.MAX_VALUE;
+		
+		for(int order = 0; order < 4; order++)
+		{
+			double sum = 0;
+			
+			for(int row = 0; row < rows; row++)
+			{
+				for(int column = 0; column < columns; column++)
+				{
+					int r = (order & 1) == 0 ? row : rows - 1 - row;
+					int c = (order & 2) == 0 ? column : columns - 1 - column;
+					int i = (row * columns + column) * 2;
+					int j = (r * columns + c) * 2;
+					
+					double dx = found[i] - expected[j];
+					double dy = found[i + 1] - expected[j + 1];
+					sum += dx * dx + dy * dy;
+				}
+			}
+			
+			best = Math.min(best, sum);
+		}
+		
+		return Math.sqrt(best / (expected.length / 2));
+	}
+	
+	public void write(File file) throws IOException
+	{
+		try(PrintWriter out = new PrintWriter(new FileWriter(file)))
+		{
+			out.println("# Synthetic stereo pair, lengths in board units, pixel (0,0) is the centre of the top left pixel");
+			out.println("target " + target);
+			out.println("size " + (int) frameSize.width + " " + (int) frameSize.height);
+			out.println("pattern " + (int) patternSize.width + " " + (int) patternSize.height);
+			out.println("cameras " + cameras);
+			
+			for(int i = 0; i < cameras; i++)
+			{
+				line(out, "intrinsic" + i, intrinsic[i]);
+				line(out, "distortion" + i, distortion[i]);
+				line(out, "boardRotation" + i, boardRotation[i]);
+				line(out, "boardTranslation" + i, boardTranslation[i]);
+			}
+			
+			line(out, "rotation", rotation);
+			line(out, "translation", translation);
+			line(out, "objectPoints", objectPoints);
+			
+			for(int i = 0; i < cameras; i++)
+			{
+				line(out, "imagePoints" + i, imagePoints[i]);
+			}
+		}
+	}
+	
+	public static GroundTruth read(File file) throws IOException
+	{
+		Map<String, String[]> lines = new HashMap<>();
+		
+		try(BufferedReader in = new BufferedReader(new FileReader(file)))
+		{
+			String line;
+			
+			while((line = in.readLine()) != null)
+			{
+				line = line.trim();
+				
+				if(line.isEmpty() || line.startsWith("#"))
+				{
+					continue;
+				}
+				
+				String[] parts = line.split("\\s+");
+				String[] values = new String[parts.length - 1];
+				System.arraycopy(parts, 1, values, 0, values.length);
+				lines.put(parts[0], values);
+			}
+		}
+		
+		try
+		{
+			double[] size = values(lines, "size");
+			double[] pattern = values(lines, "pattern");
+			int cameras = (int) values(lines, "cameras")[0];
+			
+			GroundTruth truth = new GroundTruth(lines.get("target")[0], new Size(size[0], size[1]), new Size(pattern[0], pattern[1]), cameras);
+			
+			for(int i = 0; i < cameras; i++)
+			{
+				truth.setCamera(i, mat(lines, "intrinsic" + i, 3, CvType.CV_64F),
+						mat(lines, "distortion" + i, values(lines, "distortion" + i).length, CvType.CV_64F),
+						mat(lines, "boardRotation" + i, 1, CvType.CV_64F), mat(lines, "boardTranslation" + i, 1, CvType.CV_64F),
+						new MatOfPoint2f(mat(lines, "imagePoints" + i, 2, CvType.CV_32F).reshape(2)));
+			}
+			
+			truth.setStereo(mat(lines, "rotation", 3, CvType.CV_64F), mat(lines, "translation", 1, CvType.CV_64F));
+			truth.setObjectPoints(new MatOfPoint3f(mat(lines, "objectPoints", 3, CvType.CV_32F).reshape(3)));
+			
+			return truth;
+		}
+		catch(RuntimeException e)
+		{
+			throw new IOException("Not a ground truth file: " + file, e);
+		}
+	}
+	
+	//All values of a Mat in row order, whatever its shape and channels
+	private static void line(PrintWriter out, String key, Mat mat)
+	{
+		Mat doubles = new Mat();
+		mat.convertTo(doubles, CvType.CV_64F);
+		
+		double[] values = new double[(int) (doubles.total() * doubles.channels())];
+		doubles.get(0, 0, values);
+		
+		StringBuilder line = new StringBuilder(key);
+		
+		for(double value : values)
+		{
+			//Enough digits to read back the same double
+			line.append(' ').append(Double.toString(value));
+		}
+		
+		out.println(line);
+	}
+	
+	private static double[] values(Map<String, String[]> lines, String key)
+	{
+		String[] text = lines.get(key);
+		
+		if(text == null)
+		{
+			throw new IllegalArgumentException("Missing " + key);
+		}
+		
+		double[] values = new double[text.length];
+		
+		for(int i = 0; i < text.length; i++)
+		{
+			values[i] = Double.parseDouble(text[i]);
+		}
+		
+		return values;
+	}
+	
+	//Single channel with the given number of columns, reshaped by the caller where it needs channels
+	private static Mat mat(Map<String, String[]> lines, String key, int columns, int type)
+	{
+		double[] values = values(lines, key);
+		Mat doubles = new Mat(values.length / columns, columns, CvType.CV_64F);
+		doubles.put(0, 0, values);
+		
+		Mat mat = new Mat();
+		doubles.convertTo(mat, type);
+		
+		return mat;
+	}
+	
+	public String getTarget()
+	{
+		return target;
+	}
+	
+	public Size getFrameSize()
+	{
+		return frameSize;
+	}
+	
+	public Size getPatternSize()
+	{
+		return patternSize;
+	}
+	
+	public int getCameras()
+	{
+		return cameras;
+	}
+	
+	public MatOfPoint3f getObjectPoints()
+	{
+		return objectPoints;
+	}
+	
+	public Mat getIntrinsic(int camera)
+	{
+		return intrinsic[camera];
+	}
+	
+	public Mat getDistortion(int camera)
+	{
+		return distortion[camera];
+	}
+	
+	public Mat getBoardRotation(int camera)
+	{
+		return boardRotation[camera];
+	}
+	
+	public Mat getBoardTranslation(int camera)
+	{
+		return boardTranslation[camera];
+	}
+	
+	public MatOfPoint2f getImagePoints(int camera)
+	{
+		return imagePoints[camera];
+	}
+	
+	public Mat getRotation()
+	{
+		return rotation;
+	}
+	
+	public Mat getTranslation()
+	{
+		return translation;
+	}
+}
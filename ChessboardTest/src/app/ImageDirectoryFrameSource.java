@@ -0,0 +1,137 @@
+package app;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+//Replays one side of a recorded stereo set, e.g. left_0001.png ... for camera 1 and right_0001.png ... for camera 2
+public class ImageDirectoryFrameSource implements FrameSource {
+	
+	private File directory;
+	private String prefix;
+	private boolean loop;
+	
+	private List<File> files;
+	private int position;
+	private boolean opened;
+	
+	public ImageDirectoryFrameSource(File directory, String prefix, boolean loop) {
+		this.directory = directory;
+		this.prefix = prefix;
+		this.loop = loop;
+		
+		files = new ArrayList<>();
+		position = -1;
+		opened = false;
+	}
+	
+	public static boolean isImage(String name)
+	{
+		String lower = name.toLowerCase();
+		
+		return lower.endsWith(".png") || lower.endsWith(".jpg") || lower.endsWith(".jpeg") 
+				|| lower.endsWith(".bmp") || lower.endsWith(".tif") || lower.endsWith(".tiff");
+	}
+	
+	@Override
+	public boolean open()
+	{
+		File[] listing = directory.listFiles((dir, name) -> name.startsWith(prefix) && isImage(name));
+		
+		if(listing == null || listing.length == 0)
+		{
+			System.out.println("No images starting with \"" + prefix + "\" in " + directory);
+			return false;
+		}
+		
+		//Pairs are matched by name, so both sides have to be replayed in the same order
+		Arrays.sort(listing);
+		
+		files.clear();
+		files.addAll(Arrays.asList(listing));
+		position = -1;
+		opened = true;
+		
+		return true;
+	}
+	
+	@Override
+	public boolean isOpened()
+	{
+		return opened;
+	}
+	
+	@Override
+	public boolean grab()
+	{
+		if(!opened)
+		{
+			return false;
+		}
+		
+		position++;
+		
+		if(position >= files.size())
+		{
+			if(!loop)
+			{
+				return false;
+			}
+			
+			position = 0;
+		}
+		
+		return true;
+	}
+	
+	@Override
+	public boolean retrieve(Mat frame)
+	{
+		if(position < 0 || position >= files.size())
+		{
+			return false;
+		}
+		
+		Mat image = Imgcodecs.imread(files.get(position).getPath(), Imgcodecs.IMREAD_COLOR);
+		
+		if(image.empty())
+		{
+			System.err.println("Cannot read " + files.get(position));
+			return false;
+		}
+		
+		image.copyTo(frame);
+		image.release();
+		
+		return true;
+	}
+	
+	@Override
+	public void release()
+	{
+		files.clear();
+		position = -1;
+		opened = false;
+	}
+	
+	@Override
+	public boolean isLive()
+	{
+		return false;
+	}
+	
+	public int size()
+	{
+		return files.size();
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "Images " + new File(directory, prefix + "*");
+	}
+}
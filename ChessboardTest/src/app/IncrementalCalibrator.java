@@ -0,0 +1,266 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+//Re-solves the rig in the background every time a snapshot is added instead of waiting for the full set.
+//Each solve starts from the previous one, and once the intrinsics and baselines stop moving by more than the
+//tolerance between two solves the calibration counts as converged and no more snapshots are needed.
+public class IncrementalCalibrator {
+	
+	private CameraRig rig;
+	private CalibrationService service;
+	private CalibrationListener<List<StereoCalibration>> listener;
+	
+	private int minViews;
+	private double tolerance;
+	private int resamples;
+	
+	private CalibrationJob<List<StereoCalibration>> job;
+	private List<Mat> pendingViews;
+	
+	private double[] previous;
+	private volatile boolean solving;
+	private volatile double error;
+	private volatile boolean converged;
+	private volatile CalibrationAnalysis analysis;
+	private volatile int solvedViews;
+	
+	public IncrementalCalibrator(CameraRig rig, CalibrationService service, CalibrationListener<List<StereoCalibration>> listener) {
+		this(rig, service, listener, Integer.getInteger("chessboard.minViews", 5), 
+				Double.parseDouble(System.getProperty("chessboard.convergence", "0.002")));
+	}
+	
+	public IncrementalCalibrator(CameraRig rig, CalibrationService service, CalibrationListener<List<StereoCalibration>> listener, 
+			int minViews, double tolerance) {
+		this.rig = rig;
+		this.service = service;
+		this.listener = listener;
+		this.minViews = minViews;
+		this.tolerance = tolerance;
+		
+		//At least 4, a t interval of fewer is too wide to say anything
+		resamples = Integer.getInteger("chessboard.bootstrap", Math.max(4, Runtime.getRuntime().availableProcessors()));
+		
+		error = Double.NaN;
+		converged = false;
+		solving = false;
+		solvedViews = 0;
+	}
+	
+	//Called after the channels got their image points for a new snapshot. A solve that is still running is
+	//not restarted, the newest views are picked up as soon as it is done.
+	public synchronized void snapshotAdded(List<Mat> objectPoints)
+	{
+		if(converged || objectPoints.size() < minViews)
+		{
+			return;
+		}
+		
+		List<Mat> views = new ArrayList<>(objectPoints);
+		
+		if(solving)
+		{
+			pendingViews = views;
+			return;
+		}
+		
+		solve(views);
+	}
+	
+	private void solve(List<Mat> views)
+	{
+		pendingViews = null;
+		solving = true;
+		job = service.submit("stereo-" + views.size(), j -> calibrate(views, j), 
+				new CalibrationListener<List<StereoCalibration>>() {
+			
+			@Override
+			public void progress(double fraction, String message)
+			{
+				listener.progress(fraction, message);
+			}
+			
+			@Override
+			public void finished(List<StereoCalibration> pairs)
+			{
+				solved(views.size(), pairs);
+				solving = false;
+				listener.finished(pairs);
+				next();
+			}
+			
+			@Override
+			public void failed(Throwable cause)
+			{
+				solving = false;
+				listener.failed(cause);
+				next();
+			}
+			
+			@Override
+			public void cancelled()
+			{
+				solving = false;
+				listener.cancelled();
+			}
+		});
+	}
+	
+	//With one bootstrap resample per core the bootstrap takes about as long as one solve. The intervals of so few
+	//resamples come from the t distribution, -Dchessboard.bootstrap=200 or more gives percentile intervals.
+	private List<StereoCalibration> calibrate(List<Mat> views, CalibrationJob<List<StereoCalibration>> job) 
+			throws InterruptedException, ExecutionException
+	{
+		CalibrationAnalysis result = CalibrationAnalysis.solve(rig, views, rig.getSnapshotPoints(views.size()), minViews, resamples, service, job);
+		
+		System.out.print(result.report());
+		analysis = result;
+		
+		return result.getPairs();
+	}
+	
+	//Runs from the finishing job, the new one queues behind it on the service
+	private synchronized void next()
+	{
+		if(pendingViews != null && !converged)
+		{
+			solve(pendingViews);
+		}
+	}
+	
+	private synchronized void solved(int views, List<StereoCalibration> pairs)
+	{
+		double[] current = parameters(pairs);
+		double change = Double.POSITIVE_INFINITY;
+		
+		if(previous != null)
+		{
+			change = 0;
+			
+			for(int i = 0; i < current.length; i += 2)
+			{
+				change = Math.max(change, Math.abs(current[i] - previous[i]) / previous[i + 1]);
+			}
+		}
+		
+		previous = current;
+		solvedViews = views;
+		
+		double worst = 0;
+		
+		for(StereoCalibration pair : pairs)
+		{
+			worst = Math.max(worst, pair.getError());
+		}
+		
+		error = worst;
+		converged = change < tolerance;
+		
+		System.out.println("Calibration with " + views + " views: error " + error + ", change " + change + (converged ? ", converged" : ""));
+	}
+	
+	//Focal lengths and principal points of every camera plus the baselines, the values that have to settle.
+	//Each value is followed by the scale its change is measured against: the focal length for the camera matrix
+	//and the baseline length for the translation, so components near zero do not blow up the relative change.
+	private double[] parameters(List<StereoCalibration> pairs)
+	{
+		List<Double> values = new ArrayList<>();
+		
+		for(int i = 0; i < pairs.size(); i++)
+		{
+			StereoCalibration pair = pairs.get(i);
+			
+			if(i == 0)
+			{
+				intrinsics(pair.getIntrinsic1(), values);
+			}
+			intrinsics(pair.getIntrinsic2(), values);
+			
+			Mat translation = pair.getTranslation();
+			double baseline = Math.max(Core.norm(translation), 1e-9);
+			
+			for(int row = 0; row < 3; row++)
+			{
+				values.add(translation.get(row, 0)[0]);
+				values.add(baseline);
+			}
+		}
+		
+		double[] result = new double[values.size()];
+		
+		for(int i = 0; i < result.length; i++)
+		{
+			result[i] = values.get(i);
+		}
+		
+		return result;
+	}
+	
+	private static void intrinsics(Mat intrinsic, List<Double> values)
+	{
+		double focal = Math.max(Math.abs(intrinsic.get(0, 0)[0]), 1e-9);
+		
+		values.add(intrinsic.get(0, 0)[0]);
+		values.add(focal);
+		values.add(intrinsic.get(1, 1)[0]);
+		values.add(focal);
+		values.add(intrinsic.get(0, 2)[0]);
+		values.add(focal);
+		values.add(intrinsic.get(1, 2)[0]);
+		values.add(focal);
+	}
+	
+	//Forgets the solves so far, for a different set of views such as one loaded from a journal
+	public synchronized void reset()
+	{
+		pendingViews = null;
+		previous = null;
+		converged = false;
+	}
+	
+	public synchronized void cancel()
+	{
+		pendingViews = null;
+		
+		if(job != null)
+		{
+			job.cancel();
+		}
+	}
+	
+	public boolean isBusy()
+	{
+		return solving;
+	}
+	
+	public double getError()
+	{
+		return error;
+	}
+	
+	//Per view errors, outliers and intervals of the last solve, null before the first one
+	public CalibrationAnalysis getAnalysis()
+	{
+		return analysis;
+	}
+	
+	public boolean isConverged()
+	{
+		return converged;
+	}
+	
+	public int getSolvedViews()
+	{
+		return solvedViews;
+	}
+	
+	public int getMinViews()
+	{
+		return minViews;
+	}
+}
@@ -0,0 +1,224 @@
+package app;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Size;
+
+//Picks calibration snapshots automatically. A view is only taken once the board has held still for a few frames and
+//when it adds something the earlier views did not have: corners in a part of the image no view reached yet, or a
+//new combination of board distance and tilt. Near duplicates cost solve time without making the calibration better.
+public class KeyframeSelector {
+	
+	private static final int GRID_COLUMNS = 8;
+	private static final int GRID_ROWS = 6;
+	
+	private Size boardSize;
+	
+	private double stillPixels;
+	private int stillFrames;
+	private long minGapMillis;
+	
+	private boolean[] covered;
+	private int coveredCells;
+	private Set<Integer> poses;
+	
+	private float[] previous;
+	private int still;
+	private long lastAccepted;
+	private int accepted;
+	
+	public KeyframeSelector(Size boardSize) {
+		this(boardSize, Double.parseDouble(System.getProperty("chessboard.stillPixels", "1.5")), 
+				Integer.getInteger("chessboard.stillFrames", 3), Long.getLong("chessboard.keyframeGapMs", 500));
+	}
+	
+	public KeyframeSelector(Size boardSize, double stillPixels, int stillFrames, long minGapMillis) {
+		this.boardSize = boardSize;
+		this.stillPixels = stillPixels;
+		this.stillFrames = stillFrames;
+		this.minGapMillis = minGapMillis;
+		
+		covered = new boolean[GRID_COLUMNS * GRID_ROWS];
+		coveredCells = 0;
+		poses = new HashSet<>();
+		
+		still = 0;
+		lastAccepted = 0;
+		accepted = 0;
+	}
+	
+	//Feed the corners of every frame the board was found in, true when this view should become a snapshot
+	public synchronized boolean offer(MatOfPoint2f corners, Size imageSize)
+	{
+		int count = (int)corners.total();
+		
+		if(count != boardSize.width * boardSize.height || imageSize.width <= 0)
+		{
+			lost();
+			return false;
+		}
+		
+		float[] points = new float[count * 2];
+		corners.get(0, 0, points);
+		
+		boolean steady = isStill(points);
+		previous = points;
+		
+		long now = System.currentTimeMillis();
+		
+		if(!steady || now - lastAccepted < minGapMillis)
+		{
+			return false;
+		}
+		
+		Set<Integer> cells = cells(points, imageSize);
+		int pose = pose(points, imageSize);
+		
+		boolean newCells = false;
+		
+		for(int cell : cells)
+		{
+			newCells |= !covered[cell];
+		}
+		
+		if(!newCells && poses.contains(pose))
+		{
+			return false;
+		}
+		
+		for(int cell : cells)
+		{
+			if(!covered[cell])
+			{
+				covered[cell] = true;
+				coveredCells++;
+			}
+		}
+		poses.add(pose);
+		
+		lastAccepted = now;
+		accepted++;
+		
+		//The board has to settle again before the next view
+		still = 0;
+		
+		return true;
+	}
+	
+	//Board not seen in this frame
+	public synchronized void lost()
+	{
+		previous = null;
+		still = 0;
+	}
+	
+	private boolean isStill(float[] points)
+	{
+		if(previous == null)
+		{
+			still = 0;
+			return false;
+		}
+		
+		double moved = 0;
+		
+		for(int i = 0; i < points.length; i += 2)
+		{
+			moved += Math.hypot(points[i] - previous[i], points[i + 1] - previous[i + 1]);
+		}
+		
+		if(moved / (points.length / 2) < stillPixels)
+		{
+			still++;
+		}
+		else
+		{
+			still = 0;
+		}
+		
+		return still >= stillFrames;
+	}
+	
+	//Cells of the image grid with at least one corner in them
+	private Set<Integer> cells(float[] points, Size imageSize)
+	{
+		Set<Integer> cells = new HashSet<>();
+		
+		for(int i = 0; i < points.length; i += 2)
+		{
+			int column = (int)Math.min(GRID_COLUMNS - 1, Math.max(0, points[i] / imageSize.width * GRID_COLUMNS));
+			int row = (int)Math.min(GRID_ROWS - 1, Math.max(0, points[i + 1] / imageSize.height * GRID_ROWS));
+			
+			cells.add(row * GRID_COLUMNS + column);
+		}
+		
+		return cells;
+	}
+	
+	//Scale and tilt bins packed into one key. Scale is the board's size against the image, tilt comes from how much longer
+	//one edge of the board looks than the opposite one.
+	private int pose(float[] points, Size imageSize)
+	{
+		int columns = (int)boardSize.width;
+		int rows = (int)boardSize.height;
+		
+		int topLeft = 0;
+		int topRight = columns - 1;
+		int bottomLeft = (rows - 1) * columns;
+		int bottomRight = rows * columns - 1;
+		
+		double top = distance(points, topLeft, topRight);
+		double bottom = distance(points, bottomLeft, bottomRight);
+		double left = distance(points, topLeft, bottomLeft);
+		double right = distance(points, topRight, bottomRight);
+		
+		double size = Math.sqrt((top + bottom) / 2 * (left + right) / 2 / (imageSize.width * imageSize.height));
+		int scale = size < 0.3 ? 0 : size < 0.55 ? 1 : 2;
+		
+		int tiltX = tilt(Math.log(left / right));
+		int tiltY = tilt(Math.log(top / bottom));
+		
+		return scale * 9 + tiltX * 3 + tiltY;
+	}
+	
+	private static int tilt(double ratio)
+	{
+		if(Double.isNaN(ratio) || Math.abs(ratio) < 0.08)
+		{
+			return 1;
+		}
+		
+		return ratio < 0 ? 0 : 2;
+	}
+	
+	private static double distance(float[] points, int a, int b)
+	{
+		return Math.hypot(points[a * 2] - points[b * 2], points[a * 2 + 1] - points[b * 2 + 1]);
+	}
+	
+	public synchronized void reset()
+	{
+		covered = new boolean[GRID_COLUMNS * GRID_ROWS];
+		coveredCells = 0;
+		poses.clear();
+		accepted = 0;
+		lost();
+	}
+	
+	public synchronized double getCoverage()
+	{
+		return coveredCells / (double)covered.length;
+	}
+	
+	public synchronized int getPoseCount()
+	{
+		return poses.size();
+	}
+	
+	public synchronized int getAccepted()
+	{
+		return accepted;
+	}
+}
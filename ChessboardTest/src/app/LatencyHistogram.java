@@ -0,0 +1,111 @@
+package app;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+//Lock free latency histogram with four buckets per power of two of microseconds, so any percentile is off by at most
+//a quarter of its value. Recording is a few atomic adds and can be left on in the frame loop.
+public class LatencyHistogram {
+	
+	private static final int SUB_BUCKETS = 4;
+	private static final int OCTAVES = 40;
+	
+	private AtomicLongArray buckets;
+	private LongAdder count;
+	private LongAdder total;
+	private AtomicLong max;
+	
+	public LatencyHistogram() {
+		buckets = new AtomicLongArray(SUB_BUCKETS * OCTAVES);
+		count = new LongAdder();
+		total = new LongAdder();
+		max = new AtomicLong();
+	}
+	
+	public void record(long nanos)
+	{
+		long micros = Math.max(1, nanos / 1000);
+		
+		buckets.incrementAndGet(bucket(micros));
+		count.increment();
+		total.add(nanos);
+		max.accumulateAndGet(nanos, Math::max);
+	}
+	
+	public void recordSince(long startNanos)
+	{
+		record(System.nanoTime() - startNanos);
+	}
+	
+	private static int bucket(long micros)
+	{
+		int octave = 63 - Long.numberOfLeadingZeros(micros);
+		int sub = (int)(((micros << 2) >> octave) & (SUB_BUCKETS - 1));
+		
+		return Math.min(octave * SUB_BUCKETS + sub, SUB_BUCKETS * OCTAVES - 1);
+	}
+	
+	//Upper end of a bucket in microseconds
+	private static double upperBound(int bucket)
+	{
+		int octave = bucket / SUB_BUCKETS;
+		int sub = bucket % SUB_BUCKETS;
+		
+		return (double)((SUB_BUCKETS + sub + 1L) << octave) / SUB_BUCKETS;
+	}
+	
+	public double getPercentileMillis(double percentile)
+	{
+		long samples = count.sum();
+		
+		if(samples == 0)
+		{
+			return 0;
+		}
+		
+		long rank = (long)Math.ceil(percentile / 100 * samples);
+		long seen = 0;
+		
+		for(int i = 0; i < buckets.length(); i++)
+		{
+			seen += buckets.get(i);
+			
+			if(seen >= rank)
+			{
+				return Math.min(upperBound(i) / 1000, getMaxMillis());
+			}
+		}
+		
+		return getMaxMillis();
+	}
+	
+	public double getMeanMillis()
+	{
+		long samples = count.sum();
+		
+		return samples == 0 ? 0 : total.sum() / 1e6 / samples;
+	}
+	
+	public double getMaxMillis()
+	{
+		return max.get() / 1e6;
+	}
+	
+	public long getCount()
+	{
+		return count.sum();
+	}
+	
+	public void reset()
+	{
+		for(int i = 0; i < buckets.length(); i++)
+		{
+			buckets.set(i, 0);
+		}
+		
+		count.reset();
+		total.reset();
+		max.set(0);
+	}
+}
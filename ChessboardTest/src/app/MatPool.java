@@ -0,0 +1,159 @@
+package app;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.opencv.core.Mat;
+
+//Fixed ring of native frame buffers. Capture leases a Mat, whoever consumes the frame hands it back with release(),
+//so the native footprint stays at size * frame bytes no matter how long the station runs.
+public class MatPool {
+	
+	public static final String TRACE_PROPERTY = "chessboard.pool.trace";
+	
+	private String name;
+	private Mat[] buffers;
+	private Map<Mat, Integer> slots;
+	
+	private int[] free;
+	private int freeCount;
+	
+	private long[] leasedAt;
+	private String[] leasedBy;
+	private Throwable[] leaseSites;
+	
+	private boolean trace;
+	
+	public MatPool(String name, int size) {
+		this.name = name;
+		
+		buffers = new Mat[size];
+		slots = new IdentityHashMap<>();
+		free = new int[size];
+		leasedAt = new long[size];
+		leasedBy = new String[size];
+		leaseSites = new Throwable[size];
+		
+		for(int i = 0; i < size; i++)
+		{
+			buffers[i] = new Mat();
+			slots.put(buffers[i], i);
+			free[i] = i;
+		}
+		
+		Metrics.gauge("pool." + name + ".leased", this::getLeased);
+		Metrics.gauge("pool." + name + ".nativeBytes", this::getNativeBytes);
+		
+		freeCount = size;
+		trace = Boolean.getBoolean(TRACE_PROPERTY);
+	}
+	
+	//Blocks until a buffer comes back, reporting the holders if that takes suspiciously long
+	public synchronized Mat lease() throws InterruptedException
+	{
+		while(freeCount == 0)
+		{
+			wait(1000);
+			
+			if(freeCount == 0)
+			{
+				checkLeaks(1000);
+			}
+		}
+		
+		int slot = free[--freeCount];
+		
+		leasedAt[slot] = System.nanoTime();
+		leasedBy[slot] = Thread.currentThread().getName();
+		leaseSites[slot] = trace ? new Throwable("Leased here") : null;
+		
+		return buffers[slot];
+	}
+	
+	public synchronized void release(Mat buffer)
+	{
+		Integer slot = slots.get(buffer);
+		
+		if(slot == null)
+		{
+			System.err.println(name + ": returned a Mat that does not belong to this pool");
+			return;
+		}
+		
+		if(leasedAt[slot] == 0)
+		{
+			System.err.println(name + ": buffer " + slot + " released twice");
+			return;
+		}
+		
+		leasedAt[slot] = 0;
+		leasedBy[slot] = null;
+		leaseSites[slot] = null;
+		free[freeCount++] = slot;
+		
+		notifyAll();
+	}
+	
+	//Prints every buffer held longer than maxAgeMillis and returns how many there are
+	public synchronized int checkLeaks(long maxAgeMillis)
+	{
+		long now = System.nanoTime();
+		int leaks = 0;
+		
+		for(int i = 0; i < buffers.length; i++)
+		{
+			long age = (now - leasedAt[i]) / 1000000;
+			
+			if(leasedAt[i] != 0 && age > maxAgeMillis)
+			{
+				leaks++;
+				System.err.println(name + ": buffer " + i + " leased by " + leasedBy[i] + " for " + age + " ms");
+				
+				if(leaseSites[i] != null)
+				{
+					leaseSites[i].printStackTrace();
+				}
+			}
+		}
+		
+		return leaks;
+	}
+	
+	public synchronized int getLeased()
+	{
+		return buffers.length - freeCount;
+	}
+	
+	public int getSize()
+	{
+		return buffers.length;
+	}
+	
+	//Total native bytes currently held by the pool's buffers
+	public synchronized long getNativeBytes()
+	{
+		long bytes = 0;
+		
+		for(Mat buffer : buffers)
+		{
+			bytes += buffer.total() * buffer.elemSize();
+		}
+		
+		return bytes;
+	}
+	
+	public synchronized void dispose()
+	{
+		checkLeaks(0);
+		
+		for(Mat buffer : buffers)
+		{
+			buffer.release();
+		}
+	}
+	
+	public String getName()
+	{
+		return name;
+	}
+}
@@ -0,0 +1,184 @@
+package app;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+//Shows Mats in an ImageView without creating an image per frame. The frame is converted to BGRA, which is what
+//JavaFX stores internally, copied once into one of three reusable byte arrays and written into a WritableImage
+//that is only replaced when the frame size changes.
+//Only the newest frame is kept, DisplayPump paints it on the next pulse and counts the ones that were overwritten.
+//With a stream set the original frame also goes to MjpegServer, before any conversion for the screen.
+public class MatView {
+	
+	private ImageView view;
+	
+	private Mat bgra;
+	private Mat depth8U;
+	
+	//Triple buffer: the grabber fills spare, ready holds the newest complete frame, painting belongs to the FX thread
+	private byte[] spare;
+	private byte[] ready;
+	private byte[] painting;
+	private int readyWidth;
+	private int readyHeight;
+	private long readyTimestamp;
+	private boolean fresh;
+	
+	private long shown;
+	private long dropped;
+	
+	private WritableImage image;
+	
+	private volatile MjpegStream stream;
+	
+	public MatView(ImageView view) {
+		this.view = view;
+		
+		bgra = new Mat();
+		depth8U = new Mat();
+		
+		spare = new byte[0];
+		ready = new byte[0];
+		painting = new byte[0];
+		fresh = false;
+		shown = 0;
+		dropped = 0;
+	}
+	
+	//Called from the frame loop, the Mat can be reused as soon as this returns
+	public void show(Mat frame)
+	{
+		show(frame, 0);
+	}
+	
+	//With the capture time of the frame (System.nanoTime) the capture to screen latency is recorded when it is painted
+	public void show(Mat frame, long timestamp)
+	{
+		if(frame.empty())
+		{
+			return;
+		}
+		
+		MjpegStream stream = this.stream;
+		
+		if(stream != null)
+		{
+			stream.publish(frame, timestamp);
+		}
+		
+		long start = System.nanoTime();
+		Mat source = frame;
+		
+		if(frame.depth() != CvType.CV_8U)
+		{
+			frame.convertTo(depth8U, CvType.CV_8U);
+			source = depth8U;
+		}
+		
+		switch(source.channels())
+		{
+			case 1:
+				Imgproc.cvtColor(source, bgra, Imgproc.COLOR_GRAY2BGRA);
+				break;
+			case 3:
+				Imgproc.cvtColor(source, bgra, Imgproc.COLOR_BGR2BGRA);
+				break;
+			default:
+				source.copyTo(bgra);
+				break;
+		}
+		
+		int length = (int) (bgra.total() * bgra.channels());
+		
+		if(spare.length != length)
+		{
+			spare = new byte[length];
+		}
+		
+		bgra.get(0, 0, spare);
+		Metrics.timer("toImage").recordSince(start);
+		
+		synchronized(this)
+		{
+			byte[] swap = ready;
+			ready = spare;
+			spare = swap;
+			readyWidth = bgra.cols();
+			readyHeight = bgra.rows();
+			readyTimestamp = timestamp;
+			
+			//The previous frame was never painted, it is replaced rather than queued
+			if(fresh)
+			{
+				dropped++;
+			}
+			
+			fresh = true;
+		}
+	}
+	
+	//FX thread only, called by DisplayPump once per pulse. True when a new frame was painted.
+	public boolean paint()
+	{
+		int width;
+		int height;
+		long timestamp;
+		
+		synchronized(this)
+		{
+			if(!fresh)
+			{
+				return false;
+			}
+			
+			byte[] swap = painting;
+			painting = ready;
+			ready = swap;
+			width = readyWidth;
+			height = readyHeight;
+			timestamp = readyTimestamp;
+			fresh = false;
+			shown++;
+		}
+		
+		if(image == null || (int) image.getWidth() != width || (int) image.getHeight() != height)
+		{
+			image = new WritableImage(width, height);
+			view.setImage(image);
+		}
+		
+		//Alpha is always 255, so the premultiplied format is byte for byte the same and needs no conversion
+		long start = System.nanoTime();
+		image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getByteBgraPreInstance(), painting, 0, width * 4);
+		
+		long painted = System.nanoTime();
+		Metrics.timer("paint").record(painted - start);
+		
+		if(timestamp != 0)
+		{
+			Metrics.timer("latency.display").record(painted - timestamp);
+		}
+		
+		return true;
+	}
+	
+	public void setStream(MjpegStream stream)
+	{
+		this.stream = stream;
+	}
+	
+	public synchronized long getShownFrames()
+	{
+		return shown;
+	}
+	
+	public synchronized long getDroppedFrames()
+	{
+		return dropped;
+	}
+}
@@ -0,0 +1,238 @@
+package app;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.ToDoubleFunction;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+//Process wide timers, counters, gauges and rates, named like "detect", "pool.camera-0.leased" or "latency.display".
+//Stages record into them directly, MetricsMXBean publishes them over JMX and MetricsOverlay puts a summary on screen.
+public final class Metrics {
+	
+	public static final String OBJECT_NAME = "app:type=Metrics";
+	
+	private static final ConcurrentMap<String, LatencyHistogram> timers = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<String, RateMeter> rates = new ConcurrentHashMap<>();
+	
+	private static boolean registered = false;
+	
+	private Metrics() {
+	}
+	
+	public static LatencyHistogram timer(String name)
+	{
+		return timers.computeIfAbsent(name, key -> new LatencyHistogram());
+	}
+	
+	//Null when nothing was recorded under the name yet
+	public static LatencyHistogram getTimer(String name)
+	{
+		return timers.get(name);
+	}
+	
+	public static void count(String name)
+	{
+		counters.computeIfAbsent(name, key -> new LongAdder()).increment();
+	}
+	
+	//A value read whenever metrics are looked at, a gauge registered again under the same name replaces the old one
+	public static void gauge(String name, LongSupplier value)
+	{
+		gauges.put(name, value);
+	}
+	
+	public static RateMeter rate(String name)
+	{
+		return rates.computeIfAbsent(name, key -> new RateMeter());
+	}
+	
+	//Puts the metrics on the platform MBean server once, -Dchessboard.jmx=false leaves them off
+	public static synchronized void register()
+	{
+		if(registered || !Boolean.parseBoolean(System.getProperty("chessboard.jmx", "true")))
+		{
+			return;
+		}
+		
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName(OBJECT_NAME));
+			registered = true;
+		}
+		catch(JMException e)
+		{
+			System.err.println("Could not register metrics MBean: " + e.getMessage());
+		}
+	}
+	
+	public static String report()
+	{
+		StringBuilder report = new StringBuilder();
+		
+		for(Map.Entry<String, LatencyHistogram> timer : new TreeMap<>(timers).entrySet())
+		{
+			LatencyHistogram histogram = timer.getValue();
+			report.append(String.format("%-16s p50 %7.2f  p95 %7.2f  p99 %7.2f  max %7.2f ms  (%d)%n", timer.getKey(), 
+					histogram.getPercentileMillis(50), histogram.getPercentileMillis(95), histogram.getPercentileMillis(99), 
+					histogram.getMaxMillis(), histogram.getCount()));
+		}
+		
+		for(Map.Entry<String, Double> rate : rates(RateMeter::getRate).entrySet())
+		{
+			report.append(String.format("%-16s %.1f/s%n", rate.getKey(), rate.getValue()));
+		}
+		
+		for(Map.Entry<String, Long> counter : counters().entrySet())
+		{
+			report.append(String.format("%-16s %d%n", counter.getKey(), counter.getValue()));
+		}
+		
+		for(Map.Entry<String, Long> gauge : gauges().entrySet())
+		{
+			report.append(String.format("%-16s %d%n", gauge.getKey(), gauge.getValue()));
+		}
+		
+		return report.toString();
+	}
+	
+	static Map<String, Double> timers(ToDoubleFunction<LatencyHistogram> value)
+	{
+		Map<String, Double> result = new TreeMap<>();
+		
+		for(Map.Entry<String, LatencyHistogram> timer : timers.entrySet())
+		{
+			result.put(timer.getKey(), value.applyAsDouble(timer.getValue()));
+		}
+		
+		return result;
+	}
+	
+	static Map<String, Double> rates(ToDoubleFunction<RateMeter> value)
+	{
+		Map<String, Double> result = new TreeMap<>();
+		
+		for(Map.Entry<String, RateMeter> rate : rates.entrySet())
+		{
+			result.put(rate.getKey(), value.applyAsDouble(rate.getValue()));
+		}
+		
+		return result;
+	}
+	
+	static Map<String, Long> counters()
+	{
+		Map<String, Long> result = new TreeMap<>();
+		
+		for(Map.Entry<String, LongAdder> counter : counters.entrySet())
+		{
+			result.put(counter.getKey(), counter.getValue().sum());
+		}
+		
+		return result;
+	}
+	
+	static Map<String, Long> gauges()
+	{
+		Map<String, Long> result = new TreeMap<>();
+		
+		for(Map.Entry<String, LongSupplier> gauge : gauges.entrySet())
+		{
+			result.put(gauge.getKey(), gauge.getValue().getAsLong());
+		}
+		
+		return result;
+	}
+	
+	//Timers and counters start over, gauges and rates are live values anyway
+	public static void reset()
+	{
+		for(LatencyHistogram timer : timers.values())
+		{
+			timer.reset();
+		}
+		
+		for(LongAdder counter : counters.values())
+		{
+			counter.reset();
+		}
+	}
+	
+	private static class Bean implements MetricsMXBean {
+		
+		@Override
+		public Map<String, Double> getP50Millis()
+		{
+			return timers(timer -> timer.getPercentileMillis(50));
+		}
+		
+		@Override
+		public Map<String, Double> getP95Millis()
+		{
+			return timers(timer -> timer.getPercentileMillis(95));
+		}
+		
+		@Override
+		public Map<String, Double> getP99Millis()
+		{
+			return timers(timer -> timer.getPercentileMillis(99));
+		}
+		
+		@Override
+		public Map<String, Double> getMaxMillis()
+		{
+			return timers(LatencyHistogram::getMaxMillis);
+		}
+		
+		@Override
+		public Map<String, Long> getSamples()
+		{
+			Map<String, Long> result = new TreeMap<>();
+			
+			for(Map.Entry<String, LatencyHistogram> timer : timers.entrySet())
+			{
+				result.put(timer.getKey(), timer.getValue().getCount());
+			}
+			
+			return result;
+		}
+		
+		@Override
+		public Map<String, Long> getCounters()
+		{
+			return counters();
+		}
+		
+		@Override
+		public Map<String, Long> getGauges()
+		{
+			return gauges();
+		}
+		
+		@Override
+		public Map<String, Double> getRates()
+		{
+			return rates(RateMeter::getRate);
+		}
+		
+		@Override
+		public String getReport()
+		{
+			return report();
+		}
+		
+		@Override
+		public void reset()
+		{
+			Metrics.reset();
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package app;
+
+import java.util.Map;
+
+//What Metrics shows in JConsole / VisualVM under app:type=Metrics. Latencies are in milliseconds, keyed by timer name.
+public interface MetricsMXBean {
+	
+	Map<String, Double> getP50Millis();
+	
+	Map<String, Double> getP95Millis();
+	
+	Map<String, Double> getP99Millis();
+	
+	Map<String, Double> getMaxMillis();
+	
+	Map<String, Long> getSamples();
+	
+	Map<String, Long> getCounters();
+	
+	Map<String, Long> getGauges();
+	
+	Map<String, Double> getRates();
+	
+	String getReport();
+	
+	void reset();
+}
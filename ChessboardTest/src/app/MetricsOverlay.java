@@ -0,0 +1,72 @@
+package app;
+
+import java.util.Map;
+
+import javafx.animation.AnimationTimer;
+import javafx.scene.control.Label;
+
+//Short metrics summary drawn over a view, refreshed twice a second on the FX thread while it is visible
+public class MetricsOverlay extends AnimationTimer {
+	
+	private static final long REFRESH = 500000000L;
+	
+	private Label label;
+	private long lastUpdate;
+	
+	public MetricsOverlay(Label label) {
+		this.label = label;
+		lastUpdate = 0;
+	}
+	
+	@Override
+	public void handle(long now)
+	{
+		if(!label.isVisible() || now - lastUpdate < REFRESH)
+		{
+			return;
+		}
+		
+		lastUpdate = now;
+		
+		StringBuilder text = new StringBuilder();
+		text.append(String.format("%.1f fps", Metrics.rate("display").getRate()));
+		
+		append(text, "capture->display", "latency.display");
+		append(text, "grab", "grab");
+		append(text, "retrieve", "retrieve");
+		append(text, "gray", "gray");
+		append(text, "detect", "detect");
+		append(text, "cornerSubPix", "cornerSubPix");
+		append(text, "remap", "remap");
+		append(text, "toImage", "toImage");
+		
+		long dropped = 0;
+		long nativeBytes = 0;
+		
+		for(Map.Entry<String, Long> gauge : Metrics.gauges().entrySet())
+		{
+			if(gauge.getKey().endsWith(".dropped"))
+			{
+				dropped += gauge.getValue();
+			}
+			else if(gauge.getKey().endsWith(".nativeBytes"))
+			{
+				nativeBytes += gauge.getValue();
+			}
+		}
+		
+		text.append(String.format("%ndropped %d, pooled %.1f MB", dropped, nativeBytes / 1e6));
+		
+		label.setText(text.toString());
+	}
+	
+	private static void append(StringBuilder text, String label, String timer)
+	{
+		LatencyHistogram histogram = Metrics.getTimer(timer);
+		
+		if(histogram != null && histogram.getCount() > 0)
+		{
+			text.append(String.format("%n%s %.1f / %.1f ms", label, histogram.getPercentileMillis(50), histogram.getPercentileMillis(95)));
+		}
+	}
+}
@@ -0,0 +1,273 @@
+package app;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+//Serves the views of a controller over HTTP so they can be watched from a browser, VLC, ffmpeg or a script:
+//  -Dchessboard.stream.port=8080        off when not set, 0 picks a free port
+//  -Dchessboard.stream.bind=0.0.0.0     127.0.0.1 keeps it on this machine
+//  -Dchessboard.stream.quality=80       JPEG quality
+//  GET /                 a page with every stream
+//  GET /mainViewCorrected       multipart/x-mixed-replace MJPEG, one part per encoded frame
+//  GET /mainViewCorrected.jpg   the next frame as a single JPEG
+//Every connection is handled on a thread of its own, a virtual thread where the JVM has them (21+) and a pooled
+//platform thread otherwise. A client blocked on a slow network only holds its own thread.
+public class MjpegServer {
+	
+	public static final String PORT_PROPERTY = "chessboard.stream.port";
+	public static final String BIND_PROPERTY = "chessboard.stream.bind";
+	public static final String QUALITY_PROPERTY = "chessboard.stream.quality";
+	
+	private static final String BOUNDARY = "mjpegframe";
+	
+	//How long a client waits for a frame before checking its connection is still wanted
+	private static final long FRAME_TIMEOUT = 1000;
+	
+	private HttpServer server;
+	private ExecutorService connections;
+	private Map<String, MjpegStream> streams;
+	private int quality;
+	
+	private volatile boolean running;
+	
+	public MjpegServer(String bind, int port, int quality) throws IOException {
+		this.quality = quality;
+		
+		streams = new ConcurrentHashMap<>();
+		connections = connectionExecutor();
+		
+		server = HttpServer.create(new InetSocketAddress(bind, port), 0);
+		server.createContext("/", this::handle);
+		server.setExecutor(connections);
+	}
+	
+	//Null unless -Dchessboard.stream.port is set, or when the port cannot be opened
+	public static MjpegServer fromProperties()
+	{
+		Integer port = Integer.getInteger(PORT_PROPERTY);
+		
+		if(port == null)
+		{
+			return null;
+		}
+		
+		try
+		{
+			MjpegServer server = new MjpegServer(System.getProperty(BIND_PROPERTY, "0.0.0.0"), port, Integer.getInteger(QUALITY_PROPERTY, 80));
+			server.start();
+			
+			return server;
+		}
+		catch(IOException e)
+		{
+			System.out.println("Not streaming: " + e.getMessage());
+			return null;
+		}
+	}
+	
+	//Executors.newVirtualThreadPerTaskExecutor() is looked up at run time so the source still builds for Java 8
+	private static ExecutorService connectionExecutor()
+	{
+		try
+		{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch(ReflectiveOperationException e)
+		{
+			return Executors.newCachedThreadPool(r -> {
+				Thread thread = new Thread(r, "mjpeg-client");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+	
+	public void start()
+	{
+		running = true;
+		server.start();
+		
+		System.out.println("Streaming on http://" + server.getAddress().getHostString() + ":" + getPort() + "/");
+	}
+	
+	public void stop()
+	{
+		running = false;
+		
+		for(MjpegStream stream : streams.values())
+		{
+			stream.close();
+		}
+		
+		server.stop(0);
+		connections.shutdownNow();
+	}
+	
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	}
+	
+	//The stream with this name, created on first use
+	public MjpegStream stream(String name)
+	{
+		return streams.computeIfAbsent(name, key -> {
+			MjpegStream stream = new MjpegStream(key, quality);
+			Metrics.gauge("stream." + key + ".clients", stream::getClients);
+			return stream;
+		});
+	}
+	
+	//Everything the view shows is streamed too, under the view's name
+	public void attach(String name, MatView view)
+	{
+		view.setStream(stream(name));
+	}
+	
+	private void handle(HttpExchange exchange) throws IOException
+	{
+		try
+		{
+			String path = exchange.getRequestURI().getPath();
+			
+			if(!"GET".equals(exchange.getRequestMethod()))
+			{
+				send(exchange, 405, "text/plain", "Only GET is supported");
+			}
+			else if(path.equals("/"))
+			{
+				send(exchange, 200, "text/html", index());
+			}
+			else if(path.endsWith(".jpg") && streams.containsKey(path.substring(1, path.length() - 4)))
+			{
+				snapshot(exchange, streams.get(path.substring(1, path.length() - 4)));
+			}
+			else if(streams.containsKey(path.substring(1)))
+			{
+				mjpeg(exchange, streams.get(path.substring(1)));
+			}
+			else
+			{
+				send(exchange, 404, "text/plain", "No stream " + path);
+			}
+		}
+		catch(InterruptedException e)
+		{
+			//stop() was called
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+	
+	private void mjpeg(HttpExchange exchange, MjpegStream stream) throws IOException, InterruptedException
+	{
+		exchange.getResponseHeaders().set("Content-Type", "multipart/x-mixed-replace; boundary=" + BOUNDARY);
+		exchange.getResponseHeaders().set("Cache-Control", "no-cache, no-store");
+		exchange.sendResponseHeaders(200, 0);
+		
+		OutputStream out = exchange.getResponseBody();
+		long seen = 0;
+		
+		stream.connect();
+		
+		try
+		{
+			while(running)
+			{
+				MjpegStream.Jpeg jpeg = stream.next(seen, FRAME_TIMEOUT);
+				
+				if(jpeg == null)
+				{
+					continue;
+				}
+				
+				//Everything encoded while this client was still writing the last frame is skipped
+				if(seen != 0 && jpeg.getSequence() > seen + 1)
+				{
+					Metrics.count("stream.skipped");
+				}
+				
+				seen = jpeg.getSequence();
+				
+				byte[] bytes = jpeg.getBytes();
+				String header = "--" + BOUNDARY + "\r\nContent-Type: image/jpeg\r\nContent-Length: " + bytes.length + "\r\n\r\n";
+				
+				out.write(header.getBytes(StandardCharsets.US_ASCII));
+				out.write(bytes);
+				out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+				out.flush();
+				
+				Metrics.count("stream.sent");
+			}
+		}
+		catch(IOException e)
+		{
+			//The client went away
+		}
+		finally
+		{
+			stream.disconnect();
+		}
+	}
+	
+	private void snapshot(HttpExchange exchange, MjpegStream stream) throws IOException, InterruptedException
+	{
+		MjpegStream.Jpeg jpeg;
+		
+		stream.connect();
+		
+		try
+		{
+			jpeg = stream.next(0, 5 * FRAME_TIMEOUT);
+		}
+		finally
+		{
+			stream.disconnect();
+		}
+		
+		if(jpeg == null)
+		{
+			send(exchange, 503, "text/plain", "No frame from " + stream.getName() + " yet");
+			return;
+		}
+		
+		exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+		exchange.getResponseHeaders().set("Cache-Control", "no-cache, no-store");
+		exchange.sendResponseHeaders(200, jpeg.getBytes().length);
+		exchange.getResponseBody().write(jpeg.getBytes());
+	}
+	
+	private String index()
+	{
+		StringBuilder page = new StringBuilder("<!DOCTYPE html>\n<html><head><title>ChessboardTest</title></head><body>\n");
+		
+		for(String name : new TreeSet<>(streams.keySet()))
+		{
+			page.append("<figure style=\"display:inline-block\"><img src=\"/").append(name).append("\" width=\"640\">")
+					.append("<figcaption><a href=\"/").append(name).append(".jpg\">").append(name).append("</a></figcaption></figure>\n");
+		}
+		
+		return page.append("</body></html>\n").toString();
+	}
+	
+	private static void send(HttpExchange exchange, int status, String type, String body) throws IOException
+	{
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		
+		exchange.getResponseHeaders().set("Content-Type", type + "; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		exchange.getResponseBody().write(bytes);
+	}
+}
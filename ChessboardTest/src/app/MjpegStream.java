@@ -0,0 +1,237 @@
+package app;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+//One named image stream of MjpegServer. The frame loop hands in frames with publish(), which only copies the newest one
+//while anybody is watching. The stream's own encoder thread turns it into a JPEG once and every client writes those same
+//bytes. Clients always take the newest JPEG, so one that cannot keep up skips frames and nobody else notices.
+public class MjpegStream {
+	
+	//An encoded frame, never changed once published so any number of clients can write it at once
+	public static class Jpeg {
+		
+		private long sequence;
+		private long timestamp;
+		private byte[] bytes;
+		
+		Jpeg(long sequence, long timestamp, byte[] bytes) {
+			this.sequence = sequence;
+			this.timestamp = timestamp;
+			this.bytes = bytes;
+		}
+		
+		public long getSequence()
+		{
+			return sequence;
+		}
+		
+		public long getTimestamp()
+		{
+			return timestamp;
+		}
+		
+		public byte[] getBytes()
+		{
+			return bytes;
+		}
+	}
+	
+	private String name;
+	private MatOfInt parameters;
+	
+	//Double buffer: publish() fills pending, the encoder swaps it for encoding and works on that outside the lock
+	private Mat pending;
+	private Mat encoding;
+	private Mat converted;
+	private long pendingTimestamp;
+	private boolean fresh;
+	
+	private Jpeg latest;
+	private long sequence;
+	private int clients;
+	private boolean closed;
+	
+	private Thread encoder;
+	private LatencyHistogram encodeTimer;
+	
+	public MjpegStream(String name, int quality) {
+		this.name = name;
+		
+		parameters = new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, quality);
+		pending = new Mat();
+		encoding = new Mat();
+		converted = new Mat();
+		fresh = false;
+		
+		latest = null;
+		sequence = 0;
+		clients = 0;
+		closed = false;
+		
+		encodeTimer = Metrics.timer("encode." + name);
+		
+		encoder = new Thread(this::encode, "mjpeg-" + name);
+		encoder.setDaemon(true);
+		encoder.start();
+	}
+	
+	//Frame loop side, the Mat can be reused as soon as this returns. Costs nothing while no client is connected.
+	public void publish(Mat frame, long timestamp)
+	{
+		if(frame.empty())
+		{
+			return;
+		}
+		
+		synchronized(this)
+		{
+			if(clients == 0 || closed)
+			{
+				return;
+			}
+			
+			//Overwrites a frame the encoder has not got to yet, the stream runs at whatever rate encoding allows
+			frame.copyTo(pending);
+			pendingTimestamp = timestamp;
+			fresh = true;
+			notifyAll();
+		}
+	}
+	
+	private void encode()
+	{
+		MatOfByte buffer = new MatOfByte();
+		
+		while(true)
+		{
+			long timestamp;
+			
+			synchronized(this)
+			{
+				while(!fresh && !closed)
+				{
+					try
+					{
+						wait();
+					}
+					catch(InterruptedException e)
+					{
+						return;
+					}
+				}
+				
+				if(closed)
+				{
+					return;
+				}
+				
+				Mat swap = encoding;
+				encoding = pending;
+				pending = swap;
+				timestamp = pendingTimestamp;
+				fresh = false;
+			}
+			
+			long start = System.nanoTime();
+			
+			if(!Imgcodecs.imencode(".jpg", jpegCompatible(encoding), buffer, parameters))
+			{
+				System.err.println("Stream " + name + " could not encode a " + encoding);
+				continue;
+			}
+			
+			byte[] bytes = buffer.toArray();
+			encodeTimer.recordSince(start);
+			
+			synchronized(this)
+			{
+				latest = new Jpeg(++sequence, timestamp, bytes);
+				notifyAll();
+			}
+		}
+	}
+	
+	//JPEG takes 8 bit grey or BGR, disparity and BGRA frames are converted first
+	private Mat jpegCompatible(Mat frame)
+	{
+		Mat source = frame;
+		
+		if(source.depth() != CvType.CV_8U)
+		{
+			source.convertTo(converted, CvType.CV_8U);
+			source = converted;
+		}
+		
+		if(source.channels() == 4)
+		{
+			Imgproc.cvtColor(source, converted, Imgproc.COLOR_BGRA2BGR);
+			source = converted;
+		}
+		
+		return source;
+	}
+	
+	//Client side: the newest JPEG after the one with sequence seen, waiting up to timeout ms for it. Null on timeout or
+	//once the stream is closed.
+	public synchronized Jpeg next(long seen, long timeout) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + timeout;
+		
+		while(!closed && (latest == null || latest.sequence <= seen))
+		{
+			long remaining = deadline - System.currentTimeMillis();
+			
+			if(remaining <= 0)
+			{
+				return null;
+			}
+			
+			wait(remaining);
+		}
+		
+		return closed ? null : latest;
+	}
+	
+	//The last encoded frame, null before anything was encoded
+	public synchronized Jpeg latest()
+	{
+		return latest;
+	}
+	
+	public synchronized void connect()
+	{
+		clients++;
+	}
+	
+	public synchronized void disconnect()
+	{
+		clients--;
+		
+		//Nobody watching, the next client should not be shown a stale frame from back then
+		if(clients == 0)
+		{
+			latest = null;
+		}
+	}
+	
+	public synchronized int getClients()
+	{
+		return clients;
+	}
+	
+	public String getName()
+	{
+		return name;
+	}
+	
+	public synchronized void close()
+	{
+		closed = true;
+		notifyAll();
+	}
+}
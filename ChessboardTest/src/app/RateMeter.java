@@ -0,0 +1,47 @@
+package app;
+
+import java.util.concurrent.atomic.LongAdder;
+
+//Events per second, measured over windows of at least a second so the value does not jump with every read
+public class RateMeter {
+	
+	private static final long WINDOW = 1000000000L;
+	
+	private LongAdder events;
+	private long windowStart;
+	private long windowEvents;
+	private double rate;
+	
+	public RateMeter() {
+		events = new LongAdder();
+		windowStart = System.nanoTime();
+		windowEvents = 0;
+		rate = 0;
+	}
+	
+	public void tick()
+	{
+		events.increment();
+	}
+	
+	public synchronized double getRate()
+	{
+		long now = System.nanoTime();
+		
+		if(now - windowStart >= WINDOW)
+		{
+			long total = events.sum();
+			
+			rate = (total - windowEvents) * 1e9 / (now - windowStart);
+			windowStart = now;
+			windowEvents = total;
+		}
+		
+		return rate;
+	}
+	
+	public long getCount()
+	{
+		return events.sum();
+	}
+}
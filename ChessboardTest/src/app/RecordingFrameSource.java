@@ -0,0 +1,142 @@
+package app;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.opencv.core.Mat;
+
+//Replays one camera of a FrameRecording. Every camera of the rig opens its own source on the same directory, the
+//segments are mapped by each but share the page cache. With -Dchessboard.replay=fast it runs as fast as the pipeline
+//takes the frames, otherwise at the usual 33 ms.
+public class RecordingFrameSource implements FrameSource {
+	
+	private File directory;
+	private int camera;
+	private boolean loop;
+	private long start;
+	
+	private FrameRecording recording;
+	private byte[] scratch;
+	private int position;
+	
+	//start is where replay begins, in ns since the first recorded set
+	public RecordingFrameSource(File directory, int camera, boolean loop, long start) {
+		this.directory = directory;
+		this.camera = camera;
+		this.loop = loop;
+		this.start = start;
+		
+		position = -1;
+	}
+	
+	@Override
+	public boolean open()
+	{
+		try
+		{
+			recording = FrameRecording.open(directory);
+		}
+		catch(IOException e)
+		{
+			System.out.println("Cannot open recording: " + e.getMessage());
+			return false;
+		}
+		
+		if(camera >= recording.getCameras() || recording.size() == 0)
+		{
+			System.out.println(recording + " has no frames of camera " + camera);
+			release();
+			return false;
+		}
+		
+		scratch = new byte[recording.getMaxFrameBytes(camera)];
+		seek(start);
+		
+		return true;
+	}
+	
+	@Override
+	public boolean isOpened()
+	{
+		return recording != null;
+	}
+	
+	//Random access, the next grab() returns the first set at or after the given time. All sources of a rig have to be
+	//moved to the same time, the synchronizer pairs frames by when they are grabbed.
+	public void seek(long nanos)
+	{
+		seekSet(recording.find(nanos));
+	}
+	
+	public void seekSet(int set)
+	{
+		position = set - 1;
+	}
+	
+	@Override
+	public boolean grab()
+	{
+		if(recording == null)
+		{
+			return false;
+		}
+		
+		position++;
+		
+		if(position >= recording.size())
+		{
+			if(!loop)
+			{
+				return false;
+			}
+			
+			position = 0;
+		}
+		
+		return true;
+	}
+	
+	@Override
+	public boolean retrieve(Mat frame)
+	{
+		try
+		{
+			return recording != null && recording.read(position, camera, frame, scratch);
+		}
+		catch(IOException e)
+		{
+			System.err.println("Cannot read set " + position + " of " + recording + ": " + e.getMessage());
+			return false;
+		}
+	}
+	
+	@Override
+	public void release()
+	{
+		if(recording != null)
+		{
+			recording.close();
+		}
+		
+		recording = null;
+		scratch = null;
+		position = -1;
+	}
+	
+	@Override
+	public boolean isLive()
+	{
+		return false;
+	}
+	
+	public FrameRecording getRecording()
+	{
+		return recording;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "Recording " + directory + " camera " + camera;
+	}
+}
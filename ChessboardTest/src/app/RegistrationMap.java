@@ -0,0 +1,76 @@
+package app;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+//Undistortion followed by a perspective warp, folded into one fixed-point remap table. initUndistortRectifyMap takes
+//any 3x3 for its rectification, so the warp goes in as K^-1 H K and the table comes out in one exact step, ready for a
+//single remap per frame instead of undistort rebuilding its maps every call plus a warpPerspective pass.
+public class RegistrationMap {
+	
+	private Size size;
+	private Mat map1;
+	private Mat map2;
+	
+	//Without an intrinsic the frame is only warped, without a homography it is only undistorted
+	public RegistrationMap(Mat intrinsic, Mat distortion, Mat homography, Size size) {
+		this.size = size;
+		
+		Mat cameraMatrix = Mat.eye(3, 3, CvType.CV_64F);
+		Mat coefficients = intrinsic != null ? distortion : new Mat();
+		
+		if(intrinsic != null)
+		{
+			intrinsic.convertTo(cameraMatrix, CvType.CV_64F);
+		}
+		
+		//Output pixel q reads the undistorted pixel H^-1 q, outside the source frame remap fills in black
+		Mat warp = new Mat();
+		
+		if(homography != null)
+		{
+			Mat projected = new Mat();
+			Core.gemm(cameraMatrix.inv(), homography, 1, new Mat(), 0, projected);
+			Core.gemm(projected, cameraMatrix, 1, new Mat(), 0, warp);
+		}
+		
+		map1 = new Mat();
+		map2 = new Mat();
+		Imgproc.initUndistortRectifyMap(cameraMatrix, coefficients, warp, cameraMatrix, size, CvType.CV_16SC2, map1, map2);
+	}
+	
+	//Corners in the frame the registration produces: undistorted with the camera's own matrix as before
+	public static MatOfPoint2f undistortPoints(MatOfPoint2f points, Mat intrinsic, Mat distortion)
+	{
+		MatOfPoint2f undistorted = new MatOfPoint2f();
+		Imgproc.undistortPoints(points, undistorted, intrinsic, distortion, new Mat(), intrinsic);
+		
+		return undistorted;
+	}
+	
+	public void apply(Mat frame, Mat registered)
+	{
+		long start = System.nanoTime();
+		Imgproc.remap(frame, registered, map1, map2, Imgproc.INTER_LINEAR);
+		Metrics.timer("remap").recordSince(start);
+	}
+	
+	public boolean fits(Mat frame)
+	{
+		return frame.cols() == size.width && frame.rows() == size.height;
+	}
+	
+	public Mat getMap1()
+	{
+		return map1;
+	}
+	
+	public Mat getMap2()
+	{
+		return map2;
+	}
+}
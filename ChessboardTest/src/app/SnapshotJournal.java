@@ -0,0 +1,316 @@
+package app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.Size;
+
+//Append-only file of calibration snapshots. Every view is a fixed size record of plain floats, so view i sits at
+//HEADER + objectPoints + i * record and a whole journal is read back with a few bulk copies out of the mapping.
+//
+//Layout (little endian):
+//  int magic, int version, int cameras, int points, int width, int height, int views, int reserved
+//  float[points * 3] object points of the board
+//  per view: long time (ms), float[cameras * points * 2] image points
+public class SnapshotJournal {
+	
+	private static final int MAGIC = 0x43424A31; //CBJ1
+	private static final int VERSION = 1;
+	private static final int HEADER = 32;
+	private static final int VIEWS_OFFSET = 24;
+	private static final int INITIAL_VIEWS = 256;
+	
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	private boolean writable;
+	
+	private int cameras;
+	private int points;
+	private Size imageSize;
+	private float[] objectPoints;
+	
+	private int views;
+	private int capacity;
+	private int recordSize;
+	private long dataOffset;
+	
+	private SnapshotJournal(File path, boolean writable) throws IOException {
+		this.writable = writable;
+		
+		file = new RandomAccessFile(path, writable ? "rw" : "r");
+		channel = file.getChannel();
+	}
+	
+	//Opens the journal for appending, creating it when it does not exist yet. An existing journal has to be for the same
+	//number of cameras, board and image size.
+	public static SnapshotJournal open(File path, int cameras, Mat objectPoints, Size imageSize) throws IOException
+	{
+		boolean exists = path.exists() && path.length() >= HEADER;
+		SnapshotJournal journal = new SnapshotJournal(path, true);
+		
+		try
+		{
+			if(exists)
+			{
+				journal.readHeader(journal.channel.size());
+				
+				if(journal.cameras != cameras || journal.points != objectPoints.total() || !journal.imageSize.equals(imageSize))
+				{
+					throw new IOException(path + " was recorded with " + journal.cameras + " cameras, " + journal.points + 
+							" points at " + journal.imageSize);
+				}
+			}
+			else
+			{
+				journal.create(cameras, objectPoints, imageSize);
+			}
+		}
+		catch(IOException e)
+		{
+			journal.close();
+			throw e;
+		}
+		
+		return journal;
+	}
+	
+	//Read only view of an existing journal
+	public static SnapshotJournal load(File path) throws IOException
+	{
+		SnapshotJournal journal = new SnapshotJournal(path, false);
+		
+		try
+		{
+			journal.readHeader(journal.channel.size());
+		}
+		catch(IOException e)
+		{
+			journal.close();
+			throw e;
+		}
+		
+		return journal;
+	}
+	
+	private void create(int cameras, Mat objectPoints, Size imageSize) throws IOException
+	{
+		this.cameras = cameras;
+		this.points = (int)objectPoints.total();
+		this.imageSize = imageSize;
+		this.objectPoints = new float[points * 3];
+		new MatOfPoint3f(objectPoints).get(0, 0, this.objectPoints);
+		
+		layout();
+		map(INITIAL_VIEWS);
+		
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putInt(8, cameras);
+		buffer.putInt(12, points);
+		buffer.putInt(16, (int)imageSize.width);
+		buffer.putInt(20, (int)imageSize.height);
+		buffer.putInt(VIEWS_OFFSET, 0);
+		
+		buffer.position(HEADER);
+		buffer.asFloatBuffer().put(this.objectPoints);
+	}
+	
+	private void readHeader(long length) throws IOException
+	{
+		buffer = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, length);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		
+		if(length < HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+		{
+			throw new IOException("Not a snapshot journal");
+		}
+		
+		cameras = buffer.getInt(8);
+		points = buffer.getInt(12);
+		imageSize = new Size(buffer.getInt(16), buffer.getInt(20));
+		views = buffer.getInt(VIEWS_OFFSET);
+		
+		//Sizes that would overflow the record layout are as damaged as negative ones
+		if(cameras < 1 || points < 1 || views < 0 || (long)cameras * points * 2 * Float.BYTES > Integer.MAX_VALUE / 2)
+		{
+			throw new IOException("Damaged snapshot journal header: " + cameras + " cameras, " + points + " points, " + views + " views");
+		}
+		
+		layout();
+		
+		if(length < dataOffset)
+		{
+			throw new IOException("Snapshot journal is cut short in its header");
+		}
+		
+		capacity = (int)((length - dataOffset) / recordSize);
+		
+		if(views > capacity)
+		{
+			//Count was written but the file got cut short, keep what is complete
+			views = capacity;
+		}
+		
+		objectPoints = new float[points * 3];
+		buffer.position(HEADER);
+		buffer.asFloatBuffer().get(objectPoints);
+	}
+	
+	private void layout()
+	{
+		recordSize = Long.BYTES + cameras * points * 2 * Float.BYTES;
+		dataOffset = HEADER + points * 3 * Float.BYTES;
+	}
+	
+	//Grows the file and maps it again, the old mapping goes away with the garbage collector
+	private void map(int capacity) throws IOException
+	{
+		this.capacity = capacity;
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, dataOffset + (long)capacity * recordSize);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	//Copies the corners of every camera into the journal, the Mats can be reused right after
+	public synchronized int append(List<? extends Mat> corners) throws IOException
+	{
+		if(!writable)
+		{
+			throw new IOException("Journal is read only");
+		}
+		
+		if(corners.size() != cameras)
+		{
+			throw new IllegalArgumentException("Expected corners of " + cameras + " cameras");
+		}
+		
+		if(views == capacity)
+		{
+			map(Math.max(INITIAL_VIEWS, capacity * 2));
+		}
+		
+		float[] view = new float[points * 2];
+		int offset = (int)(dataOffset + (long)views * recordSize);
+		
+		buffer.putLong(offset, System.currentTimeMillis());
+		buffer.position(offset + Long.BYTES);
+		FloatBuffer floats = buffer.asFloatBuffer();
+		
+		for(Mat mat : corners)
+		{
+			if(mat.total() != points)
+			{
+				throw new IllegalArgumentException("Expected " + points + " corners, got " + mat.total());
+			}
+			
+			new MatOfPoint2f(mat).get(0, 0, view);
+			floats.put(view);
+		}
+		
+		//Count last, a record is only part of the journal once it is complete
+		views++;
+		buffer.putInt(VIEWS_OFFSET, views);
+		
+		return views - 1;
+	}
+	
+	public synchronized float[] getPoints(int view, int camera)
+	{
+		float[] result = new float[points * 2];
+		
+		buffer.position((int)(dataOffset + (long)view * recordSize + Long.BYTES + (long)camera * points * 2 * Float.BYTES));
+		buffer.asFloatBuffer().get(result);
+		
+		return result;
+	}
+	
+	public synchronized long getTime(int view)
+	{
+		return buffer.getLong((int)(dataOffset + (long)view * recordSize));
+	}
+	
+	//One MatOfPoint2f per view, each its own copy
+	public List<Mat> loadImagePoints(int camera)
+	{
+		List<Mat> result = new ArrayList<>();
+		
+		for(int i = 0; i < size(); i++)
+		{
+			MatOfPoint2f view = new MatOfPoint2f();
+			view.alloc(points);
+			view.put(0, 0, getPoints(i, camera));
+			result.add(view);
+		}
+		
+		return result;
+	}
+	
+	//The board is the same for every view, so all entries share one Mat
+	public List<Mat> loadObjectPoints()
+	{
+		MatOfPoint3f board = new MatOfPoint3f();
+		board.alloc(points);
+		board.put(0, 0, objectPoints);
+		
+		List<Mat> result = new ArrayList<>();
+		
+		for(int i = 0; i < size(); i++)
+		{
+			result.add(board);
+		}
+		
+		return result;
+	}
+	
+	public synchronized int size()
+	{
+		return views;
+	}
+	
+	public int getCameras()
+	{
+		return cameras;
+	}
+	
+	public int getPoints()
+	{
+		return points;
+	}
+	
+	public Size getImageSize()
+	{
+		return imageSize;
+	}
+	
+	public synchronized void flush()
+	{
+		if(writable && buffer != null)
+		{
+			buffer.force();
+		}
+	}
+	
+	public synchronized void close()
+	{
+		flush();
+		
+		try
+		{
+			file.close();
+		}
+		catch(IOException e)
+		{
+			System.err.println("Could not close snapshot journal: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,283 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgproc.Imgproc;
+
+//Result of calibrating one camera pair: stereoCalibrate, stereoRectify and the remap tables for both cameras.
+//The intrinsics and distortion passed in are refined in place.
+public class StereoCalibration {
+	
+	public static final int STEREO_FLAGS = Calib3d.CALIB_FIX_ASPECT_RATIO +
+			Calib3d.CALIB_ZERO_TANGENT_DIST +
+			Calib3d.CALIB_USE_INTRINSIC_GUESS +
+			Calib3d.CALIB_SAME_FOCAL_LENGTH +
+			Calib3d.CALIB_RATIONAL_MODEL +
+			Calib3d.CALIB_FIX_K3 + 
+			Calib3d.CALIB_FIX_K4 + 
+			Calib3d.CALIB_FIX_K5;
+	
+	private Size imageSize;
+	private double error;
+	
+	private Mat intrinsic1;
+	private Mat distortion1;
+	private Mat intrinsic2;
+	private Mat distortion2;
+	
+	private Mat rotation;
+	private Mat translation;
+	private Mat essential;
+	private Mat fundamental;
+	
+	private Mat rectify1;
+	private Mat rectify2;
+	private Mat projection1;
+	private Mat projection2;
+	private Mat disparityToDepth;
+	
+	private Rect roi1;
+	private Rect roi2;
+	private Rect validRegion;
+	
+	private Mat camera1Map1;
+	private Mat camera1Map2;
+	private Mat camera2Map1;
+	private Mat camera2Map2;
+	
+	private StereoCalibration(Size imageSize, Mat intrinsic1, Mat distortion1, Mat intrinsic2, Mat distortion2) {
+		this.imageSize = imageSize;
+		this.intrinsic1 = intrinsic1;
+		this.distortion1 = distortion1;
+		this.intrinsic2 = intrinsic2;
+		this.distortion2 = distortion2;
+		
+		rotation = new Mat();
+		translation = new Mat();
+		essential = new Mat();
+		fundamental = new Mat();
+		
+		rectify1 = new Mat();
+		rectify2 = new Mat();
+		projection1 = new Mat();
+		projection2 = new Mat();
+		disparityToDepth = new Mat();
+		
+		roi1 = new Rect();
+		roi2 = new Rect();
+		validRegion = new Rect(0, 0, (int)imageSize.width, (int)imageSize.height);
+		
+		camera1Map1 = new Mat();
+		camera1Map2 = new Mat();
+		camera2Map1 = new Mat();
+		camera2Map2 = new Mat();
+	}
+	
+	//Starting guess for a camera matrix from the snapshots of one camera
+	public static Mat initIntrinsic(List<Mat> objectPoints, List<Mat> imagePoints, Size imageSize)
+	{
+		List<MatOfPoint3f> objectPoints3f = new ArrayList<>();
+		List<MatOfPoint2f> imagePoints2f = new ArrayList<>();
+		
+		for(int i = 0; i < objectPoints.size(); i++)
+		{
+			objectPoints3f.add(new MatOfPoint3f(objectPoints.get(i)));
+			imagePoints2f.add(new MatOfPoint2f(imagePoints.get(i)));
+		}
+		
+		return Calib3d.initCameraMatrix2D(objectPoints3f, imagePoints2f, imageSize);
+	}
+	
+	public static StereoCalibration calibrate(List<Mat> objectPoints, List<Mat> points1, List<Mat> points2, Size imageSize, 
+			Mat intrinsic1, Mat distortion1, Mat intrinsic2, Mat distortion2)
+	{
+		return calibrate(objectPoints, points1, points2, imageSize, intrinsic1, distortion1, intrinsic2, distortion2, true);
+	}
+	
+	//Without rectify there are no rectification transforms or maps, for solves that only need the parameters
+	public static StereoCalibration calibrate(List<Mat> objectPoints, List<Mat> points1, List<Mat> points2, Size imageSize, 
+			Mat intrinsic1, Mat distortion1, Mat intrinsic2, Mat distortion2, boolean rectify)
+	{
+		StereoCalibration calibration = new StereoCalibration(imageSize, intrinsic1, distortion1, intrinsic2, distortion2);
+		
+		calibration.error = Calib3d.stereoCalibrate(objectPoints, points1, points2, intrinsic1, distortion1, intrinsic2, distortion2,
+				imageSize, calibration.rotation, calibration.translation, calibration.essential, calibration.fundamental, 
+				STEREO_FLAGS,
+				new TermCriteria(TermCriteria.COUNT + TermCriteria.EPS, 30, 0.01));
+		
+		if(rectify)
+		{
+			calibration.rectify();
+		}
+		
+		return calibration;
+	}
+	
+	private void rectify()
+	{
+		Size newSize = new Size(imageSize.width, imageSize.height);
+		Calib3d.stereoRectify(intrinsic1, distortion1, intrinsic2, distortion2, imageSize, rotation, translation, 
+				rectify1, rectify2, projection1, projection2, disparityToDepth, 
+				Calib3d.CALIB_ZERO_DISPARITY, 0, newSize, roi1, roi2);
+		
+		Imgproc.initUndistortRectifyMap(intrinsic1, distortion1, rectify1, projection1, newSize, CvType.CV_16SC2, camera1Map1, camera1Map2);
+		Imgproc.initUndistortRectifyMap(intrinsic2, distortion2, rectify2, projection2, newSize, CvType.CV_16SC2, camera2Map1, camera2Map2);
+	}
+	
+	//Cuts the maps down to the region where both rectified images have valid pixels. Remap output is as big as its maps,
+	//so rectified frames lose their black borders and every stage after it works on fewer pixels. The projections and Q
+	//are moved to the new origin, both cameras are cropped alike so disparities stay the same.
+	public boolean cropToValidRegion()
+	{
+		int left = Math.max(roi1.x, roi2.x);
+		int top = Math.max(roi1.y, roi2.y);
+		int right = Math.min(roi1.x + roi1.width, roi2.x + roi2.width);
+		int bottom = Math.min(roi1.y + roi1.height, roi2.y + roi2.height);
+		
+		if(right <= left || bottom <= top || camera1Map1.empty())
+		{
+			return false;
+		}
+		
+		Rect common = new Rect(left, top, right - left, bottom - top);
+		
+		camera1Map1 = camera1Map1.submat(common).clone();
+		camera1Map2 = camera1Map2.submat(common).clone();
+		camera2Map1 = camera2Map1.submat(common).clone();
+		camera2Map2 = camera2Map2.submat(common).clone();
+		
+		for(Mat projection : new Mat[] {projection1, projection2})
+		{
+			projection.put(0, 2, projection.get(0, 2)[0] - common.x);
+			projection.put(1, 2, projection.get(1, 2)[0] - common.y);
+		}
+		
+		//Q holds -cx and -cy
+		disparityToDepth.put(0, 3, disparityToDepth.get(0, 3)[0] + common.x);
+		disparityToDepth.put(1, 3, disparityToDepth.get(1, 3)[0] + common.y);
+		
+		validRegion = common;
+		
+		return true;
+	}
+	
+	//Part of the full rectified image the maps cover
+	public Rect getValidRegion()
+	{
+		return validRegion;
+	}
+	
+	public Size getImageSize()
+	{
+		return imageSize;
+	}
+	
+	public double getError()
+	{
+		return error;
+	}
+	
+	public Mat getIntrinsic1()
+	{
+		return intrinsic1;
+	}
+	
+	public Mat getDistortion1()
+	{
+		return distortion1;
+	}
+	
+	public Mat getIntrinsic2()
+	{
+		return intrinsic2;
+	}
+	
+	public Mat getDistortion2()
+	{
+		return distortion2;
+	}
+	
+	public Mat getRotation()
+	{
+		return rotation;
+	}
+	
+	public Mat getTranslation()
+	{
+		return translation;
+	}
+	
+	public Mat getEssential()
+	{
+		return essential;
+	}
+	
+	public Mat getFundamental()
+	{
+		return fundamental;
+	}
+	
+	public Mat getRectify1()
+	{
+		return rectify1;
+	}
+	
+	public Mat getRectify2()
+	{
+		return rectify2;
+	}
+	
+	public Mat getProjection1()
+	{
+		return projection1;
+	}
+	
+	public Mat getProjection2()
+	{
+		return projection2;
+	}
+	
+	public Mat getDisparityToDepth()
+	{
+		return disparityToDepth;
+	}
+	
+	public Rect getRoi1()
+	{
+		return roi1;
+	}
+	
+	public Rect getRoi2()
+	{
+		return roi2;
+	}
+	
+	public Mat getCamera1Map1()
+	{
+		return camera1Map1;
+	}
+	
+	public Mat getCamera1Map2()
+	{
+		return camera1Map2;
+	}
+	
+	public Mat getCamera2Map1()
+	{
+		return camera2Map1;
+	}
+	
+	public Mat getCamera2Map2()
+	{
+		return camera2Map2;
+	}
+}
@@ -0,0 +1,153 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.calib3d.StereoBM;
+import org.opencv.calib3d.StereoMatcher;
+import org.opencv.calib3d.StereoSGBM;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+//Disparity and 3D points for a rectified pair. The frame is cut into horizontal strips that are matched side by side,
+//every strip with its own matcher and a few rows of overlap so the block windows (and SGBM's paths) near a seam still
+//see real image above and below. Each strip is reprojected with Q moved to the strip's first row.
+public class StereoDepth {
+	
+	private int strips;
+	private int numDisparities;
+	private int blockSize;
+	private int overlap;
+	
+	private ExecutorService workers;
+	private StereoMatcher[] matchers;
+	private Mat[] stripDisparity;
+	private Mat[] stripFloat;
+	
+	private Mat leftGray;
+	private Mat rightGray;
+	
+	public StereoDepth() {
+		this("sgbm".equals(System.getProperty("chessboard.stereo", "bm")), Integer.getInteger("chessboard.disparities", 64), 
+				Integer.getInteger("chessboard.strips", Runtime.getRuntime().availableProcessors()));
+	}
+	
+	public StereoDepth(boolean semiGlobal, int numDisparities, int strips) {
+		this.strips = Math.max(1, strips);
+		this.numDisparities = numDisparities;
+		
+		blockSize = Integer.getInteger("chessboard.blockSize", semiGlobal ? 5 : 15);
+		overlap = Math.max(blockSize, 16);
+		
+		matchers = new StereoMatcher[this.strips];
+		stripDisparity = new Mat[this.strips];
+		stripFloat = new Mat[this.strips];
+		
+		for(int i = 0; i < this.strips; i++)
+		{
+			if(semiGlobal)
+			{
+				int area = blockSize * blockSize;
+				matchers[i] = StereoSGBM.create(0, numDisparities, blockSize, 8 * area, 32 * area, 1, 63, 10, 100, 2, StereoSGBM.MODE_SGBM_3WAY);
+			}
+			else
+			{
+				matchers[i] = StereoBM.create(numDisparities, blockSize);
+			}
+			
+			stripDisparity[i] = new Mat();
+			stripFloat[i] = new Mat();
+		}
+		
+		AtomicInteger count = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(this.strips, r -> {
+			Thread thread = new Thread(r, "depth-" + count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		leftGray = new Mat();
+		rightGray = new Mat();
+	}
+	
+	//Disparity in pixels (CV_32F, invalid matches negative) and CV_32FC3 points in the units of the calibration board.
+	//Only one caller at a time, the gray buffers and strip results are reused.
+	public void compute(Mat left, Mat right, Mat disparityToDepth, Mat disparity, Mat points) throws InterruptedException
+	{
+		Imgproc.cvtColor(left, leftGray, Imgproc.COLOR_BGR2GRAY);
+		Imgproc.cvtColor(right, rightGray, Imgproc.COLOR_BGR2GRAY);
+		
+		int rows = leftGray.rows();
+		int cols = leftGray.cols();
+		
+		disparity.create(rows, cols, CvType.CV_32F);
+		points.create(rows, cols, CvType.CV_32FC3);
+		
+		List<Future<?>> results = new ArrayList<>();
+		
+		for(int i = 0; i < strips; i++)
+		{
+			int strip = i;
+			int top = rows * i / strips;
+			int bottom = rows * (i + 1) / strips;
+			
+			results.add(workers.submit(() -> match(strip, top, bottom, disparityToDepth, disparity, points)));
+		}
+		
+		for(Future<?> result : results)
+		{
+			try
+			{
+				result.get();
+			}
+			catch(ExecutionException e)
+			{
+				throw new IllegalStateException("Disparity strip failed", e.getCause());
+			}
+		}
+	}
+	
+	private void match(int strip, int top, int bottom, Mat disparityToDepth, Mat disparity, Mat points)
+	{
+		int rows = leftGray.rows();
+		int paddedTop = Math.max(0, top - overlap);
+		int paddedBottom = Math.min(rows, bottom + overlap);
+		
+		matchers[strip].compute(leftGray.rowRange(paddedTop, paddedBottom), rightGray.rowRange(paddedTop, paddedBottom), stripDisparity[strip]);
+		
+		//Fixed point with 4 fractional bits, reprojectImageTo3D would take 16-bit values as whole pixels
+		Mat inner = stripDisparity[strip].rowRange(top - paddedTop, bottom - paddedTop);
+		inner.convertTo(stripFloat[strip], CvType.CV_32F, 1.0 / 16);
+		
+		Mat target = disparity.rowRange(top, bottom);
+		stripFloat[strip].copyTo(target);
+		
+		//Q holds -cy, the strip's row 0 is row top of the frame
+		Mat stripQ = disparityToDepth.clone();
+		stripQ.put(1, 3, stripQ.get(1, 3)[0] + top);
+		
+		Calib3d.reprojectImageTo3D(target, points.rowRange(top, bottom), stripQ, true);
+	}
+	
+	public int getStrips()
+	{
+		return strips;
+	}
+	
+	public int getNumDisparities()
+	{
+		return numDisparities;
+	}
+	
+	public void shutdown()
+	{
+		workers.shutdownNow();
+	}
+}
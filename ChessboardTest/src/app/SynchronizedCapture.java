@@ -0,0 +1,228 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opencv.core.Mat;
+
+//One capture thread per camera. Every round all threads grab() first and meet at a barrier before any of them
+//retrieve()s, so the skew between cameras is the grab latency instead of a whole decode.
+//When one source runs out the others finish the frames they already hold, so a replay ends without losing any.
+public class SynchronizedCapture {
+	
+	public static final String MAX_SKEW_PROPERTY = "chessboard.maxSkewMs";
+	
+	private static final int QUEUE_SIZE = 4;
+	
+	private List<FrameSource> sources;
+	private List<Thread> workers;
+	private List<MatPool> pools;
+	private Phaser grabbed;
+	private AtomicInteger active;
+	private FrameSynchronizer synchronizer;
+	private volatile FrameRecorder recorder;
+	
+	private boolean fastReplay;
+	private long periodNanos;
+	
+	private volatile boolean running;
+	
+	public SynchronizedCapture(List<FrameSource> sources, long periodMillis, boolean fastReplay) {
+		this(sources, periodMillis, fastReplay, 2);
+	}
+	
+	//inFlight is how many frames per camera the consumer may hold at once before releasing them
+	public SynchronizedCapture(List<FrameSource> sources, long periodMillis, boolean fastReplay, int inFlight) {
+		this.sources = sources;
+		this.fastReplay = fastReplay;
+		
+		periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+		
+		long maxSkew = Long.getLong(MAX_SKEW_PROPERTY, periodMillis / 2);
+		
+		//Replay has to hand out every recorded frame, live capture only cares about the newest ones
+		synchronizer = new FrameSynchronizer(sources.size(), QUEUE_SIZE, maxSkew, TimeUnit.MILLISECONDS, !allLive(sources));
+		grabbed = new Phaser(sources.size());
+		active = new AtomicInteger(sources.size());
+		workers = new ArrayList<>();
+		pools = new ArrayList<>();
+		
+		//Enough for a full synchronizer queue, the frames being processed and the one being retrieved
+		for(int i = 0; i < sources.size(); i++)
+		{
+			pools.add(new MatPool("camera-" + i, QUEUE_SIZE + inFlight + 2));
+		}
+		running = false;
+		
+		Metrics.gauge("capture.dropped", this::getDroppedFrames);
+	}
+	
+	public void start()
+	{
+		running = true;
+		
+		for(int i = 0; i < sources.size(); i++)
+		{
+			final int camera = i;
+			Thread worker = new Thread(() -> capture(camera), "capture-" + camera);
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+	}
+	
+	public void stop()
+	{
+		running = false;
+		grabbed.forceTermination();
+		synchronizer.close();
+		
+		if(recorder != null)
+		{
+			recorder.close();
+		}
+		
+		for(Thread worker : workers)
+		{
+			worker.interrupt();
+		}
+	}
+	
+	//False once every capture thread has ended, frames still queued can be taken with next()
+	public boolean isRunning()
+	{
+		return active.get() > 0;
+	}
+	
+	//Next matched set with one frame per camera, null when none arrived in time or capture has stopped
+	public Frame[] next(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		Frame[] frames = synchronizer.take(timeout, unit);
+		FrameRecorder recorder = this.recorder;
+		
+		//A copy into the recorder's staging buffers, the writing happens on its own thread
+		if(frames != null && recorder != null)
+		{
+			recorder.record(frames);
+		}
+		
+		return frames;
+	}
+	
+	//Every matched set is recorded from then on, null stops recording without closing the recorder
+	public void setRecorder(FrameRecorder recorder)
+	{
+		this.recorder = recorder;
+	}
+	
+	//A newer set is already waiting, whoever holds the current one is behind
+	public boolean hasBacklog()
+	{
+		return synchronizer.hasBacklog();
+	}
+	
+	public MatPool getPool(int camera)
+	{
+		return pools.get(camera);
+	}
+	
+	public long getDroppedFrames()
+	{
+		return synchronizer.getDroppedFrames();
+	}
+	
+	private void capture(int camera)
+	{
+		FrameSource source = sources.get(camera);
+		MatPool pool = pools.get(camera);
+		long sequence = 0;
+		long due = System.nanoTime();
+		
+		try
+		{
+			while(running)
+			{
+				//Live devices block in grab() at their own rate, recordings are paced here unless replaying fast
+				if(!source.isLive() && !fastReplay)
+				{
+					long wait = due - System.nanoTime();
+					
+					if(wait > 0)
+					{
+						TimeUnit.NANOSECONDS.sleep(wait);
+					}
+					
+					due += periodNanos;
+				}
+				
+				//Start every round together so the grabs go out back to back and their timestamps are comparable
+				if(grabbed.arriveAndAwaitAdvance() < 0)
+				{
+					break;
+				}
+				
+				long grabStart = System.nanoTime();
+				
+				if(!source.grab())
+				{
+					System.out.println("End of " + source);
+					
+					//The others still retrieve and hand over what they grabbed this round, then stop
+					running = false;
+					grabbed.arriveAndDeregister();
+					break;
+				}
+				
+				long timestamp = System.nanoTime();
+				Metrics.timer("grab").record(timestamp - grabStart);
+				
+				if(grabbed.arriveAndAwaitAdvance() < 0)
+				{
+					//stop() was called
+					break;
+				}
+				
+				Mat image = pool.lease();
+				Frame frame = new Frame(camera, sequence++, timestamp, image, pool);
+				
+				long retrieveStart = System.nanoTime();
+				boolean retrieved = source.retrieve(image);
+				Metrics.timer("retrieve").recordSince(retrieveStart);
+				
+				if(retrieved)
+				{
+					synchronizer.offer(frame);
+				}
+				else
+				{
+					frame.release();
+				}
+			}
+		}
+		catch(InterruptedException e)
+		{
+			//stop() was called
+		}
+		
+		if(active.decrementAndGet() == 0)
+		{
+			synchronizer.finish();
+		}
+	}
+	
+	private static boolean allLive(List<FrameSource> sources)
+	{
+		for(FrameSource source : sources)
+		{
+			if(!source.isLive())
+			{
+				return false;
+			}
+		}
+		
+		return true;
+	}
+}
@@ -0,0 +1,591 @@
+package app;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.Point;
+import org.opencv.core.Point3;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+//Renders the targets of the two controllers into stereo pairs with a known answer, to test detection and calibration
+//without cameras. Every output sample is traced back through the lens and the board pose onto a flat texture of the
+//target and supersampled, so the images carry exactly the distortion and poses the ground truth states. The lens is
+//inverted here to convergence, undistortPoints stops after 5 iterations and is a few thousandths of a pixel off in the
+//corners of a 4K frame, which is the order of error the generator exists to measure.
+//The output directory replays directly with -Dchessboard.source=images:<directory>:
+//  left_0001.png, right_0001.png, truth_0001.txt (see GroundTruth), left_0002.png ...
+//Headless: java app.SyntheticTargets <directory> [pairs] [first], configured with
+//  -Dchessboard.synthetic.target=chessboard|circles     the 9x6 board of ViewController or the 4x11 grid of Controller2
+//  -Dchessboard.synthetic.resolution=1920x1080          any size, up to 3840x2160 and beyond
+//  -Dchessboard.synthetic.focal=0.9                     focal length as a fraction of the width
+//  -Dchessboard.synthetic.distortion=-0.2,0.08,0,0,0    k1,k2,p1,p2,k3 of the left camera
+//  -Dchessboard.synthetic.baseline=6                    in board units (squares or circle spacings)
+//  -Dchessboard.synthetic.noise=2                       sensor noise sigma in grey levels
+//  -Dchessboard.synthetic.supersample=2                 samples per pixel along each axis
+//  -Dchessboard.synthetic.seed=1                        pair n only depends on the seed and n, never on threading
+public class SyntheticTargets {
+	
+	private static final int PAPER = 235;
+	private static final int INK = 20;
+	private static final int TABLE = 80;
+	private static final double CIRCLE_RADIUS = 0.35;
+	private static final int STRIP_ROWS = 32;
+	
+	private CalibrationTarget target;
+	private Size frameSize;
+	private Size patternSize;
+	private double noise;
+	private int supersample;
+	private long seed;
+	
+	private Mat[] intrinsic;
+	private Mat[] distortion;
+	private double[] stereoRotation;
+	private double[] stereoTranslation;
+	
+	//Board coordinates: x runs down the printed target, y to the right, like the object points of the controllers
+	private MatOfPoint3f objectPoints;
+	private MatOfPoint3f outline;
+	private double paperTop;
+	private double paperLeft;
+	private double paperBottom;
+	private double paperRight;
+	
+	public SyntheticTargets(CalibrationTarget target, Size frameSize, double focal, double[] distortion, double baseline, double noise, int supersample, long seed) {
+		this.target = target;
+		this.frameSize = frameSize;
+		this.noise = noise;
+		this.supersample = Math.max(1, supersample);
+		this.seed = seed;
+		
+		//The right camera is a slightly different unit of the same model, mounted a little off parallel
+		intrinsic = new Mat[] {camera(focal, 0, 0), camera(focal * 1.01, 0.004, -0.003)};
+		this.distortion = new Mat[] {coefficients(distortion, 1), coefficients(distortion, 0.95)};
+		stereoRotation = rodrigues(0.004, -0.012, 0.002);
+		stereoTranslation = new double[] {-baseline, 0.02 * baseline, 0.01 * baseline};
+		
+		patternSize = target.getPatternSize();
+		objectPoints = target.objectPoints();
+		
+		if(target == CalibrationTarget.CHESSBOARD)
+		{
+			int rows = (int) patternSize.height;
+			int columns = (int) patternSize.width;
+			
+			outline = new MatOfPoint3f(new Point3(-1, -1, 0), new Point3(-1, columns, 0), new Point3(rows, columns, 0), new Point3(rows, -1, 0));
+			paperTop = -2;
+			paperLeft = -2;
+			paperBottom = rows + 1;
+			paperRight = columns + 1;
+		}
+		else
+		{
+			double bottom = 2 * (patternSize.width - 1) + 1;
+			double right = patternSize.height - 1;
+			outline = new MatOfPoint3f(new Point3(-0.5, -0.5, 0), new Point3(-0.5, right + 0.5, 0),
+					new Point3(bottom + 0.5, right + 0.5, 0), new Point3(bottom + 0.5, -0.5, 0));
+			paperTop = -1.5;
+			paperLeft = -1.5;
+			paperBottom = bottom + 1.5;
+			paperRight = right + 1.5;
+		}
+	}
+	
+	public static SyntheticTargets fromProperties()
+	{
+		String[] resolution = System.getProperty("chessboard.synthetic.resolution", "1920x1080").toLowerCase().split("x");
+		String[] coefficients = System.getProperty("chessboard.synthetic.distortion", "-0.2,0.08,0,0,0").split(",");
+		double[] distortion = new double[coefficients.length];
+		
+		for(int i = 0; i < coefficients.length; i++)
+		{
+			distortion[i] = Double.parseDouble(coefficients[i].trim());
+		}
+		
+		return new SyntheticTargets(
+				CalibrationTarget.fromProperty("chessboard.synthetic.target"),
+				new Size(Integer.parseInt(resolution[0]), Integer.parseInt(resolution[1])),
+				Double.parseDouble(System.getProperty("chessboard.synthetic.focal", "0.9")),
+				distortion,
+				Double.parseDouble(System.getProperty("chessboard.synthetic.baseline", "6")),
+				Double.parseDouble(System.getProperty("chessboard.synthetic.noise", "2")),
+				Integer.getInteger("chessboard.synthetic.supersample", 2),
+				Long.getLong("chessboard.synthetic.seed", 1));
+	}
+	
+	//A random board pose that keeps the whole pattern inside both frames, the same one for the same seed and index
+	public GroundTruth pose(int index)
+	{
+		Random random = new Random(seed * 1000003 + index);
+		double fx = intrinsic[0].get(0, 0)[0];
+		double[] center = {(paperTop + paperBottom) / 2, (paperLeft + paperRight) / 2, 0};
+		double patternWidth = paperWidth();
+		
+		for(int attempt = 0; attempt < 1000; attempt++)
+		{
+			//Upright target facing the camera: board x down the image, y to the right, z towards the camera
+			double[] rotation = multiply(rodrigues(0, 0, uniform(random, -15, 15) * Math.PI / 180),
+					multiply(rodrigues(0, uniform(random, -35, 35) * Math.PI / 180, 0),
+					multiply(rodrigues(uniform(random, -35, 35) * Math.PI / 180, 0, 0),
+					new double[] {0, 1, 0, 1, 0, 0, 0, 0, -1})));
+			
+			//Distance from how much of the width the pattern covers, position from where its centre lands
+			double depth = fx * patternWidth / (uniform(random, 0.3, 0.7) * frameSize.width);
+			double u = uniform(random, 0.3, 0.7) * frameSize.width;
+			double v = uniform(random, 0.3, 0.7) * frameSize.height;
+			double[] ray = {(u - intrinsic[0].get(0, 2)[0]) / fx, (v - intrinsic[0].get(1, 2)[0]) / intrinsic[0].get(1, 1)[0], 1};
+			double[] offset = apply(rotation, center);
+			double[] translation = {depth * ray[0] - offset[0], depth * ray[1] - offset[1], depth * ray[2] - offset[2]};
+			
+			double[] rightRotation = multiply(stereoRotation, rotation);
+			double[] moved = apply(stereoRotation, translation);
+			double[] rightTranslation = {moved[0] + stereoTranslation[0], moved[1] + stereoTranslation[1], moved[2] + stereoTranslation[2]};
+			
+			MatOfPoint2f left = project(objectPoints, rotation, translation, 0);
+			MatOfPoint2f right = project(objectPoints, rightRotation, rightTranslation, 1);
+			
+			if(!inside(project(outline, rotation, translation, 0)) || !inside(project(outline, rightRotation, rightTranslation, 1))
+					|| !inside(left) || !inside(right) || rightTranslation[2] <= 0)
+			{
+				continue;
+			}
+			
+			GroundTruth truth = new GroundTruth(target.name().toLowerCase(), frameSize, patternSize, 2);
+			truth.setObjectPoints(objectPoints);
+			truth.setStereo(matrix(stereoRotation, 3), matrix(stereoTranslation, 1));
+			truth.setCamera(0, intrinsic[0], distortion[0], vector(rotation), matrix(translation, 1), left);
+			truth.setCamera(1, intrinsic[1], distortion[1], vector(rightRotation), matrix(rightTranslation, 1), right);
+			
+			return truth;
+		}
+		
+		throw new IllegalStateException("No pose keeps the " + target + " inside both " + frameSize + " frames, lower the baseline");
+	}
+	
+	//Grey frame of one camera for a pose from pose()
+	public Mat render(GroundTruth truth, int camera, int index)
+	{
+		Mat cameraMatrix = truth.getIntrinsic(camera);
+		Mat coefficients = truth.getDistortion(camera);
+		Mat rotation = new Mat();
+		Calib3d.Rodrigues(truth.getBoardRotation(camera), rotation);
+		Mat translation = truth.getBoardTranslation(camera);
+		
+		//Normalised image point ~ [r1 r2 t] (x, y, 1), the inverse takes every pixel's ray back onto the board
+		double[] board = {
+				rotation.get(0, 0)[0], rotation.get(0, 1)[0], translation.get(0, 0)[0],
+				rotation.get(1, 0)[0], rotation.get(1, 1)[0], translation.get(1, 0)[0],
+				rotation.get(2, 0)[0], rotation.get(2, 1)[0], translation.get(2, 0)[0]};
+		double[] inverse = invert(board);
+		
+		//About one texel per sample where the board is closest to the camera
+		double nearest = Math.max(1e-6, translation.get(2, 0)[0] - paperWidth());
+		int texels = (int) Math.max(16, Math.min(400, Math.ceil(cameraMatrix.get(0, 0)[0] * supersample / nearest)));
+		Mat texture = texture(texels);
+		
+		int width = (int) frameSize.width;
+		int height = (int) frameSize.height;
+		Mat frame = new Mat(height, width, CvType.CV_8UC1);
+		
+		Mat mapX = new Mat();
+		Mat mapY = new Mat();
+		Mat sampled = new Mat();
+		double[] lens = new double[9];
+		double[] coefficient = new double[5];
+		cameraMatrix.get(0, 0, lens);
+		coefficients.get(0, 0, coefficient);
+		
+		//Strip by strip, so a 4K frame with 4 samples per pixel never needs more than a few MB of maps
+		for(int top = 0; top < height; top += STRIP_ROWS)
+		{
+			int rows = Math.min(STRIP_ROWS, height - top) * supersample;
+			int columns = width * supersample;
+			double[] coordinates = new double[rows * columns * 2];
+			
+			for(int row = 0; row < rows; row++)
+			{
+				double y = (top * supersample + row + 0.5) / supersample - 0.5;
+				
+				for(int column = 0; column < columns; column++)
+				{
+					int i = (row * columns + column) * 2;
+					coordinates[i] = (column + 0.5) / supersample - 0.5;
+					coordinates[i + 1] = y;
+				}
+			}
+			
+			float[] textureX = new float[rows * columns];
+			float[] textureY = new float[rows * columns];
+			double[] ray = new double[2];
+			
+			for(int i = 0; i < textureX.length; i++)
+			{
+				//Each row starts from the undistorted guess, every other sample from its left neighbour
+				if(i % columns == 0)
+				{
+					ray[0] = (coordinates[i * 2] - lens[2]) / lens[0];
+					ray[1] = (coordinates[i * 2 + 1] - lens[5]) / lens[4];
+				}
+				
+				undistort(coordinates[i * 2], coordinates[i * 2 + 1], lens, coefficient, ray);
+				double x = ray[0];
+				double y = ray[1];
+				double w = inverse[6] * x + inverse[7] * y + inverse[8];
+				
+				//w is 1 / depth, rays that meet the plane behind the camera see the table
+				if(w <= 0)
+				{
+					textureX[i] = -1;
+					textureY[i] = -1;
+					continue;
+				}
+				
+				double boardX = (inverse[0] * x + inverse[1] * y + inverse[2]) / w;
+				double boardY = (inverse[3] * x + inverse[4] * y + inverse[5]) / w;
+				textureX[i] = (float) ((boardY - paperLeft) * texels - 0.5);
+				textureY[i] = (float) ((boardX - paperTop) * texels - 0.5);
+			}
+			
+			mapX.create(rows, columns, CvType.CV_32FC1);
+			mapY.create(rows, columns, CvType.CV_32FC1);
+			mapX.put(0, 0, textureX);
+			mapY.put(0, 0, textureY);
+			
+			Imgproc.remap(texture, sampled, mapX, mapY, Imgproc.INTER_LINEAR, Core.BORDER_CONSTANT, new Scalar(TABLE));
+			Mat strip = frame.rowRange(top, top + rows / supersample);
+			Imgproc.resize(sampled, strip, strip.size(), 0, 0, Imgproc.INTER_AREA);
+		}
+		
+		//A little lens blur and sensor noise, seeded per pair and camera
+		Imgproc.GaussianBlur(frame, frame, new Size(3, 3), 0.6);
+		
+		if(noise > 0)
+		{
+			Mat signal = new Mat();
+			Mat grain = new Mat(frame.size(), CvType.CV_16SC1);
+			
+			Core.setRNGSeed((int) (seed * 7919 + index * 2 + camera));
+			Core.randn(grain, 0, noise);
+			
+			frame.convertTo(signal, CvType.CV_16SC1);
+			Core.add(signal, grain, signal);
+			signal.convertTo(frame, CvType.CV_8UC1);
+		}
+		
+		return frame;
+	}
+	
+	//Pairs first to first + count - 1, rendered on every core
+	public void write(File directory, int first, int count) throws Exception
+	{
+		if(!directory.isDirectory() && !directory.mkdirs())
+		{
+			throw new IllegalArgumentException("Cannot create " + directory);
+		}
+		
+		ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+			Thread thread = new Thread(r, "synthetic");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		try
+		{
+			List<Future<?>> pairs = new ArrayList<>();
+			
+			for(int i = first; i < first + count; i++)
+			{
+				int index = i;
+				
+				pairs.add(workers.submit(() -> {
+					GroundTruth truth = pose(index);
+					
+					for(int camera = 0; camera < 2; camera++)
+					{
+						Mat frame = render(truth, camera, index);
+						Imgcodecs.imwrite(new File(directory, GroundTruth.name(FrameSources.prefixFor(camera), index, "png")).getPath(), frame);
+					}
+					
+					truth.write(new File(directory, GroundTruth.name(GroundTruth.PREFIX, index, "txt")));
+					return null;
+				}));
+			}
+			
+			for(int i = 0; i < pairs.size(); i++)
+			{
+				pairs.get(i).get();
+				
+				if((i + 1) % 10 == 0 || i + 1 == pairs.size())
+				{
+					System.out.println("Rendered " + (i + 1) + " of " + count + " pairs");
+				}
+			}
+		}
+		finally
+		{
+			workers.shutdownNow();
+		}
+	}
+	
+	private Mat texture(int texels)
+	{
+		int rows = (int) Math.round((paperBottom - paperTop) * texels);
+		int columns = (int) Math.round((paperRight - paperLeft) * texels);
+		Mat texture = new Mat(rows, columns, CvType.CV_8UC1, new Scalar(PAPER));
+		
+		if(target == CalibrationTarget.CHESSBOARD)
+		{
+			//Squares are whole texels, so every edge sits exactly on a texel boundary
+			for(int row = -1; row < patternSize.height; row++)
+			{
+				for(int column = -1; column < patternSize.width; column++)
+				{
+					if(((row + column) & 1) == 0)
+					{
+						int y = (int) Math.round((row - paperTop) * texels);
+						int x = (int) Math.round((column - paperLeft) * texels);
+						texture.submat(y, y + texels, x, x + texels).setTo(new Scalar(INK));
+					}
+				}
+			}
+		}
+		else
+		{
+			//Centres in 1/256 texel fixed point
+			int shift = 8;
+			double scale = 1 << shift;
+			float[] points = new float[(int) objectPoints.total() * 3];
+			objectPoints.get(0, 0, points);
+			
+			for(int i = 0; i < points.length; i += 3)
+			{
+				Point center = new Point(Math.round(((points[i + 1] - paperLeft) * texels - 0.5) * scale),
+						Math.round(((points[i] - paperTop) * texels - 0.5) * scale));
+				Imgproc.circle(texture, center, (int) Math.round(CIRCLE_RADIUS * texels * scale), new Scalar(INK), Core.FILLED, Imgproc.LINE_AA, shift);
+			}
+		}
+		
+		return texture;
+	}
+	
+	//Normalised ray of a distorted pixel under the model projectPoints uses (k1, k2, p1, p2, k3). Newton's method started
+	//from whatever ray holds, which for the next sample of a row is a fraction of a pixel away, so it takes 2 or 3 steps.
+	private static void undistort(double u, double v, double[] lens, double[] k, double[] ray)
+	{
+		double distortedX = (u - lens[2]) / lens[0];
+		double distortedY = (v - lens[5]) / lens[4];
+		double x = ray[0];
+		double y = ray[1];
+		
+		for(int iteration = 0; iteration < 20; iteration++)
+		{
+			double r2 = x * x + y * y;
+			double radial = 1 + r2 * (k[0] + r2 * (k[1] + r2 * k[4]));
+			double slope = k[0] + r2 * (2 * k[1] + r2 * 3 * k[4]);
+			
+			double errorX = x * radial + 2 * k[2] * x * y + k[3] * (r2 + 2 * x * x) - distortedX;
+			double errorY = y * radial + k[2] * (r2 + 2 * y * y) + 2 * k[3] * x * y - distortedY;
+			
+			double xx = radial + 2 * x * x * slope + 2 * k[2] * y + 6 * k[3] * x;
+			double xy = 2 * x * y * slope + 2 * k[2] * x + 2 * k[3] * y;
+			double yy = radial + 2 * y * y * slope + 6 * k[2] * y + 2 * k[3] * x;
+			double determinant = xx * yy - xy * xy;
+			
+			double stepX = (yy * errorX - xy * errorY) / determinant;
+			double stepY = (xx * errorY - xy * errorX) / determinant;
+			
+			x -= stepX;
+			y -= stepY;
+			
+			if(Math.abs(stepX) + Math.abs(stepY) < 1e-12)
+			{
+				break;
+			}
+		}
+		
+		ray[0] = x;
+		ray[1] = y;
+	}
+	
+	private MatOfPoint2f project(MatOfPoint3f points, double[] rotation, double[] translation, int camera)
+	{
+		MatOfPoint2f projected = new MatOfPoint2f();
+		//Coefficients as a column, see CalibrationAnalysis
+		Calib3d.projectPoints(points, vector(rotation), matrix(translation, 1), intrinsic[camera],
+				new MatOfDouble(distortion[camera].reshape(1, 5)), projected);
+		
+		return projected;
+	}
+	
+	//With a margin of 2% so the detectors get a quiet zone around the pattern
+	private boolean inside(MatOfPoint2f points)
+	{
+		double margin = 0.02 * frameSize.width;
+		
+		for(Point point : points.toArray())
+		{
+			if(Double.isNaN(point.x) || point.x < margin || point.y < margin
+					|| point.x > frameSize.width - margin || point.y > frameSize.height - margin)
+			{
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	private double paperWidth()
+	{
+		return paperRight - paperLeft;
+	}
+	
+	private Mat camera(double focal, double shiftX, double shiftY)
+	{
+		double[] values = {
+				focal * frameSize.width, 0, (frameSize.width - 1) / 2 + shiftX * frameSize.width,
+				0, focal * frameSize.width, (frameSize.height - 1) / 2 + shiftY * frameSize.height,
+				0, 0, 1};
+		
+		return matrix(values, 3);
+	}
+	
+	private static Mat coefficients(double[] distortion, double scale)
+	{
+		double[] values = new double[5];
+		
+		for(int i = 0; i < Math.min(5, distortion.length); i++)
+		{
+			values[i] = distortion[i] * scale;
+		}
+		
+		Mat coefficients = new Mat(1, 5, CvType.CV_64F);
+		coefficients.put(0, 0, values);
+		
+		return coefficients;
+	}
+	
+	private static double uniform(Random random, double from, double to)
+	{
+		return from + random.nextDouble() * (to - from);
+	}
+	
+	private static Mat matrix(double[] values, int columns)
+	{
+		Mat matrix = new Mat(values.length / columns, columns, CvType.CV_64F);
+		matrix.put(0, 0, values);
+		
+		return matrix;
+	}
+	
+	private static Mat vector(double[] rotation)
+	{
+		Mat vector = new Mat();
+		Calib3d.Rodrigues(matrix(rotation, 3), vector);
+		
+		return vector;
+	}
+	
+	//Row major 3x3 rotation from a rotation vector
+	private static double[] rodrigues(double x, double y, double z)
+	{
+		Mat rotation = new Mat();
+		Calib3d.Rodrigues(matrix(new double[] {x, y, z}, 1), rotation);
+		
+		double[] values = new double[9];
+		rotation.get(0, 0, values);
+		
+		return values;
+	}
+	
+	private static double[] multiply(double[] a, double[] b)
+	{
+		double[] product = new double[9];
+		
+		for(int row = 0; row < 3; row++)
+		{
+			for(int column = 0; column < 3; column++)
+			{
+				for(int k = 0; k < 3; k++)
+				{
+					product[row * 3 + column] += a[row * 3 + k] * b[k * 3 + column];
+				}
+			}
+		}
+		
+		return product;
+	}
+	
+	private static double[] apply(double[] a, double[] v)
+	{
+		return new double[] {
+				a[0] * v[0] + a[1] * v[1] + a[2] * v[2],
+				a[3] * v[0] + a[4] * v[1] + a[5] * v[2],
+				a[6] * v[0] + a[7] * v[1] + a[8] * v[2]};
+	}
+	
+	private static double[] invert(double[] m)
+	{
+		double determinant = m[0] * (m[4] * m[8] - m[5] * m[7]) - m[1] * (m[3] * m[8] - m[5] * m[6]) + m[2] * (m[3] * m[7] - m[4] * m[6]);
+		
+		return new double[] {
+				(m[4] * m[8] - m[5] * m[7]) / determinant, (m[2] * m[7] - m[1] * m[8]) / determinant, (m[1] * m[5] - m[2] * m[4]) / determinant,
+				(m[5] * m[6] - m[3] * m[8]) / determinant, (m[0] * m[8] - m[2] * m[6]) / determinant, (m[2] * m[3] - m[0] * m[5]) / determinant,
+				(m[3] * m[7] - m[4] * m[6]) / determinant, (m[1] * m[6] - m[0] * m[7]) / determinant, (m[0] * m[4] - m[1] * m[3]) / determinant};
+	}
+	
+	public CalibrationTarget getTarget()
+	{
+		return target;
+	}
+	
+	public Size getFrameSize()
+	{
+		return frameSize;
+	}
+	
+	public Size getPatternSize()
+	{
+		return patternSize;
+	}
+	
+	public MatOfPoint3f getObjectPoints()
+	{
+		return objectPoints;
+	}
+	
+	public static void main(String[] args) throws Exception
+	{
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+		
+		if(args.length < 1)
+		{
+			System.out.println("Usage: SyntheticTargets <directory> [pairs] [first]");
+			return;
+		}
+		
+		int pairs = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int first = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+		
+		SyntheticTargets generator = fromProperties();
+		long start = System.nanoTime();
+		generator.write(new File(args[0]), first, pairs);
+		
+		System.out.println(pairs + " " + generator.getTarget().name().toLowerCase() + " pairs at " + (int) generator.getFrameSize().width + "x"
+				+ (int) generator.getFrameSize().height + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+}
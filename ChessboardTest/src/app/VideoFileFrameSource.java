@@ -0,0 +1,72 @@
+package app;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+public class VideoFileFrameSource implements FrameSource {
+	
+	private VideoCapture video;
+	private String path;
+	private boolean loop;
+	
+	public VideoFileFrameSource(String path, boolean loop) {
+		this.path = path;
+		this.loop = loop;
+		video = new VideoCapture();
+	}
+	
+	@Override
+	public boolean open()
+	{
+		return video.isOpened() || video.open(path);
+	}
+	
+	@Override
+	public boolean isOpened()
+	{
+		return video.isOpened();
+	}
+	
+	@Override
+	public boolean grab()
+	{
+		if(video.grab())
+		{
+			return true;
+		}
+		
+		if(loop)
+		{
+			//Rewind and try once more, an empty file still ends the replay
+			video.set(Videoio.CAP_PROP_POS_FRAMES, 0);
+			return video.grab();
+		}
+		
+		return false;
+	}
+	
+	@Override
+	public boolean retrieve(Mat frame)
+	{
+		return video.retrieve(frame);
+	}
+	
+	@Override
+	public void release()
+	{
+		video.release();
+	}
+	
+	@Override
+	public boolean isLive()
+	{
+		return false;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "Video " + path;
+	}
+}
@@ -1,13 +1,9 @@
 package app;
 
-import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
-import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 import org.opencv.calib3d.Calib3d;
 import org.opencv.core.Core;
@@ -17,20 +13,16 @@ import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.MatOfPoint3f;
 import org.opencv.core.Point;
 import org.opencv.core.Point3;
-import org.opencv.core.Rect;
 import org.opencv.core.Size;
-import org.opencv.core.TermCriteria;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.utils.Converters;
-import org.opencv.videoio.VideoCapture;
-import org.opencv.videoio.Videoio;
 
 import javafx.application.Platform;
-import javafx.beans.property.ObjectProperty;
-import javafx.embed.swing.SwingFXUtils;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
-import javafx.scene.image.Image;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.image.ImageView;
 
 public class ViewController {
@@ -43,54 +35,62 @@ public class ViewController {
 	@FXML
 	private ImageView secondViewCorrected;
 	@FXML
+	private ImageView depthView;
+	@FXML
 	private Button snapButton;
+	@FXML
+	private Button cancelButton;
+	@FXML
+	private CheckBox autoCapture;
+	@FXML
+	private CheckBox showMetrics;
+	@FXML
+	private Label metricsOverlay;
+	@FXML
+	private ProgressBar calibrationProgress;
+	@FXML
+	private Label calibrationStatus;
 	
-	private VideoCapture camera1;
-	private VideoCapture camera2;
+	private MatView mainViewDisplay;
+	private MatView mainViewCorrectedDisplay;
+	private MatView secondViewDisplay;
+	private MatView secondViewCorrectedDisplay;
+	private MatView depthDisplay;
+	private DisplayPump displayPump;
+	private MjpegServer streamServer;
+	private MetricsOverlay overlay;
 	
-	private boolean camera1Started;
-	private boolean camera2Started;
+	private CameraRig rig;
 	
-	private boolean camera1Found;
-	private boolean camera2Found;
+	private boolean camerasStarted;
 	
-	private boolean getSecondCamera;
 	private boolean registerCamera1;
 	private boolean registerCamera2;
 	
-	private boolean camera1Calibrated;
-	private boolean camera2Calibrated;
-	
-	private Mat camera1Frame;
-	private Mat camera2Frame;
-	
-	private Mat camera1Undistorted;
-	private Mat camera2Undistorted;
-	
-	private Mat camera1Map1;
-	private Mat camera1Map2;
-	private Mat camera2Map1;
-	private Mat camera2Map2;
-	
-	private List<Mat> camera1Points;
-	private List<MatOfPoint2f> camera1Points2f;
-	private List<Mat> camera2Points;
-	private List<MatOfPoint2f> camera2Points2f;
 	private List<Mat> objectPoints;
 	private List<MatOfPoint3f> objectPoints3f;
 	
-	private MatOfPoint2f camera1Corners;
-	private MatOfPoint2f camera2Corners;
-	
 	private MatOfPoint3f cameraObj;
 	
-	private Mat camera1Intrinsic;
-	private Mat camera2Intrinsic;
+	private Size boardSize;
+	
+	private SynchronizedCapture capture;
+	private FramePipeline pipeline;
+	
+	private StereoDepth stereoDepth;
+	private MatPool disparityPool;
+	private MatPool pointsPool;
+	private Mat disparityView;
 	
-	private Mat camera1Dist;
-	private Mat camera2Dist;
+	private CalibrationService calibration;
+	private IncrementalCalibrator calibrator;
 	
-	private ScheduledExecutorService timer;
+	private KeyframeSelector keyframes;
+	private volatile boolean autoCaptureEnabled;
+	
+	private File journalFile;
+	private SnapshotJournal journal;
+	private File calibrationFile;
 	
 	private int numFramesToCalib;
 	private int numFrames1;
@@ -98,17 +98,11 @@ public class ViewController {
 	private int numCornersHor;
 	private int numCornersVer;
 	
-	private long prevTime;
-	private long currentTime;
 	
 	public ViewController() {
 		
-		camera1Started = false;
-		camera1Found = false;
-		camera2Started = false;
-		camera2Found = false;
+		camerasStarted = false;
 		
-		getSecondCamera = false;
 		registerCamera1 = false;
 		registerCamera2 = false;
 		
@@ -119,31 +113,56 @@ public class ViewController {
 		numFramesToCalib = 20;
 		numFrames1 = 0;
 		
-		camera1Undistorted = new Mat();
-		camera2Undistorted = new Mat();
+		boardSize = new Size(numCornersVer, numCornersHor);
+		rig = CameraRig.fromProperties(boardSize);
 		
-		camera1Corners = new MatOfPoint2f();
-		camera2Corners = new MatOfPoint2f();
-		cameraObj = new MatOfPoint3f();
+		keyframes = new KeyframeSelector(boardSize);
+		autoCaptureEnabled = true;
+		//Every snapshot is also saved here so a calibration can be redone without capturing again
+		String journalPath = System.getProperty("chessboard.journal", "snapshots.cbj");
+		journalFile = journalPath.isEmpty() ? null : new File(journalPath);
 		
-		camera1Points = new ArrayList<>();
-		camera1Points2f = new ArrayList<>();
-		camera2Points = new ArrayList<>();
-		camera2Points2f = new ArrayList<>();
-		objectPoints = new ArrayList<>();
-		objectPoints3f = new ArrayList<>();
+		//Last calibration including its remap tables, loaded at start so the rig rectifies right away
+		calibrationFile = new File(System.getProperty("chessboard.calibration", "calibration.cbc"));
+		loadCalibration();
 		
-		camera1Intrinsic = new Mat(3, 3, CvType.CV_32FC1);
-		camera2Intrinsic = new Mat(3, 3, CvType.CV_32FC1);
-
-		camera1Dist = new Mat();
-		camera2Dist = new Mat();
+		calibration = new CalibrationService();
+		calibrator = new IncrementalCalibrator(rig, calibration, new CalibrationListener<List<StereoCalibration>>() {
+			
+			@Override
+			public void progress(double fraction, String message)
+			{
+				Platform.runLater(() -> {
+					showCalibrationStatus(fraction, message);
+					cancelButton.setDisable(false);
+				});
+			}
+			
+			@Override
+			public void finished(List<StereoCalibration> pairs)
+			{
+				saveCalibration();
+				Platform.runLater(() -> calibrationSolved());
+			}
+			
+			@Override
+			public void failed(Throwable error)
+			{
+				CalibrationListener.super.failed(error);
+				Platform.runLater(() -> calibrationEnded("Calibration failed"));
+			}
+			
+			@Override
+			public void cancelled()
+			{
+				Platform.runLater(() -> calibrationEnded("Calibration cancelled"));
+			}
+		});
 		
-		camera1Calibrated = false;
-		camera2Calibrated = false;
+		cameraObj = new MatOfPoint3f();
 		
-		prevTime = 0;
-		currentTime = System.currentTimeMillis();
+		objectPoints = new ArrayList<>();
+		objectPoints3f = new ArrayList<>();
 		
 		for(int i = 0; i < numCornersHor; i++)
 		{
@@ -160,25 +179,50 @@ public class ViewController {
 		*/
 	}
 	
+	@FXML
+	private void initialize()
+	{
+		displayPump = new DisplayPump();
+		
+		mainViewDisplay = displayPump.register(new MatView(mainView));
+		mainViewCorrectedDisplay = displayPump.register(new MatView(mainViewCorrected));
+		secondViewDisplay = displayPump.register(new MatView(secondView));
+		secondViewCorrectedDisplay = displayPump.register(new MatView(secondViewCorrected));
+		depthDisplay = displayPump.register(new MatView(depthView));
+		
+		//The same views over HTTP, off unless -Dchessboard.stream.port is set
+		streamServer = MjpegServer.fromProperties();
+		
+		if(streamServer != null)
+		{
+			streamServer.attach("mainView", mainViewDisplay);
+			streamServer.attach("mainViewCorrected", mainViewCorrectedDisplay);
+			streamServer.attach("secondView", secondViewDisplay);
+			streamServer.attach("secondViewCorrected", secondViewCorrectedDisplay);
+			streamServer.attach("depthView", depthDisplay);
+		}
+		
+		displayPump.start();
+		
+		//Off unless -Dchessboard.overlay=true or the Metrics box is ticked, the MBean is always there
+		metricsOverlay.setVisible(Boolean.getBoolean("chessboard.overlay"));
+		showMetrics.setSelected(metricsOverlay.isVisible());
+		overlay = new MetricsOverlay(metricsOverlay);
+		overlay.start();
+		Metrics.register();
+	}
+	
 	@FXML
 	private void startCameras()
 	{
-		if(!camera1Started)
+		if(!camerasStarted)
 		{
-			camera1 = new VideoCapture();
-			camera1Started = camera1.open(0);
-			camera2 = new VideoCapture();
-			camera2Started = camera2.open(1); 
+			camerasStarted = rig.open();
 			
-			if(camera1Started && camera2Started)
+			if(camerasStarted)
 			{
-				getSecondCamera = true;
 				runCameras();
 			}
-			else
-			{
-				System.out.println("Error opening Camera 1, please check the connection and try again");
-			}
 		}
 	}
 
@@ -197,116 +241,282 @@ public class ViewController {
 	
 	private void runCameras()
 	{
-		if(camera1Started)
+		if(camerasStarted)
 		{
-			Runnable framegrabber = new Runnable() 
+			List<FrameSource> sources = rig.getSources();
+			boolean fastReplay = FrameSources.isFastReplay(sources.toArray(new FrameSource[0]));
+			
+			//Each stage gets its own thread, so slow detection no longer holds up capture, remap or display.
+			//Inside a stage every camera is handled by its channel's own worker.
+			pipeline = new FramePipeline(fastReplay);
+			//Detection and depth are left out for a set that would make the ones behind it late
+			pipeline.addOptionalStage("detect", this::detect);
+			pipeline.addStage("rectify", this::rectify);
+			pipeline.addOptionalStage("depth", this::depth);
+			pipeline.addStage("render", this::render);
+			
+			for(int i = 0; i < rig.size(); i++)
 			{
-				
-				@Override
-				public void run() 
-				{
-					camera1Frame = new Mat();
-					camera1.grab();
-					camera1.retrieve(camera1Frame);
-					
-					//Imgproc.cvtColor(camera1Frame, camera1Frame, Imgproc.COLOR_BGR2GRAY);		
-					
-					if(getSecondCamera)
-					{
-						camera2Frame = new Mat();
-						camera2.grab();
-						camera2.retrieve(camera2Frame);
-						
-						//Imgproc.cvtColor(camera2Frame, camera2Frame, Imgproc.COLOR_BGR2GRAY);
-					}
-					
-					if(registerCamera1)
-					{
-						findAndDrawPoints(camera1Frame, camera2Frame);
-						
-						if(camera1Calibrated && camera2Calibrated)
-						{
-							
-//							System.out.println("Remapping camera 1");
-							Imgproc.remap(camera1Frame, camera1Undistorted, camera1Map1, camera1Map2, Imgproc.INTER_LINEAR);
-							
-//							System.out.println("Showing camera 1");
-							updateImageView(mainViewCorrected, mat2Image(camera1Undistorted));
-							
-//							System.out.println("Remapping camera 2");
-							Imgproc.remap(camera2Frame, camera2Undistorted, camera2Map1, camera2Map2, Imgproc.INTER_LINEAR);
-							
-							//System.out.println(camera2Undistorted);
-							
-//							System.out.println("Showing camera 2");
-							updateImageView(secondViewCorrected, mat2Image(camera2Undistorted));
-						
-						}
-					}
-					
-					updateImageView(mainView, mat2Image(camera1Frame));
-					updateImageView(secondView, mat2Image(camera2Frame));
-				}
-			};
+				rig.getChannel(i).setRectifiedPool(new MatPool("camera-" + i + "-rectified", pipeline.getCapacity()));
+			}
+			
+			stereoDepth = new StereoDepth();
+			disparityPool = new MatPool("disparity", pipeline.getCapacity());
+			pointsPool = new MatPool("points", pipeline.getCapacity());
+			disparityView = new Mat();
+			
+			capture = new SynchronizedCapture(sources, 33, fastReplay, pipeline.getCapacity());
+			capture.setRecorder(FrameRecorder.fromProperties(sources.size()));
+			pipeline.start(capture);
+		}
+	}
+	
+	private boolean detect(FrameSet set) throws InterruptedException
+	{
+		//Imgproc.cvtColor(camera1Frame, camera1Frame, Imgproc.COLOR_BGR2GRAY);		
+		
+		if(registerCamera1)
+		{
+			boolean found = rig.detect(set);
 			
-			timer = Executors.newSingleThreadScheduledExecutor();
-			timer.scheduleAtFixedRate(framegrabber, 0, 33, TimeUnit.MILLISECONDS);
+			if(autoCaptureEnabled)
+			{
+				autoCapture(found);
+			}
+		}
+		
+		return true;
+	}
+	
+	//Detect stage, the corners stay put until this stage runs detection again
+	private void autoCapture(boolean found)
+	{
+		CameraChannel reference = rig.getReference();
+		
+		if(!found)
+		{
+			keyframes.lost();
+			return;
+		}
+		
+		//The snapshot button may have taken this set already, then it is not offered as a keyframe at all
+		List<Mat> corners = rig.takeFoundCorners(() -> keyframes.offer(reference.getCorners(), reference.getFrameSize()));
+		
+		if(corners == null)
+		{
+			return;
+		}
+		
+		System.out.println("Keyframe " + keyframes.getAccepted() + ", coverage " + String.format("%.2f", keyframes.getCoverage()) + 
+				", poses " + keyframes.getPoseCount());
+		Platform.runLater(() -> addSnapshot(corners));
+	}
+	
+	@FXML
+	private void toggleMetrics()
+	{
+		metricsOverlay.setVisible(showMetrics.isSelected());
+	}
+	
+	@FXML
+	private void toggleAutoCapture()
+	{
+		autoCaptureEnabled = autoCapture.isSelected();
+		keyframes.lost();
+	}
+	
+	private boolean rectify(FrameSet set) throws InterruptedException
+	{
+		if(rig.isCalibrated())
+		{
+			rig.rectify(set);
 		}
+		
+		return true;
 	}
 	
-	private void findAndDrawPoints(Mat cam1, Mat cam2)
+	//Disparity and 3D points of the reference and the first other camera, rectified as one pair
+	private boolean depth(FrameSet set) throws InterruptedException
 	{
-		Mat copy1 = new Mat();
-		Mat copy2 = new Mat();
+		Frame left = set.getRectified(0);
+		Frame right = set.getRectified(1);
+		Mat disparityToDepth = rig.getReference().getDisparityToDepth();
 		
-		Imgproc.cvtColor(cam1, copy1, Imgproc.COLOR_BGR2GRAY);
-		Imgproc.cvtColor(cam2, copy2, Imgproc.COLOR_BGR2GRAY);
+		if(left == null || right == null || disparityToDepth.empty())
+		{
+			return true;
+		}
 		
-		Size boardSize = new Size(numCornersVer, numCornersHor);
+		Mat disparity = disparityPool.lease();
+		Mat points = pointsPool.lease();
 		
-		boolean found1 = Calib3d.findChessboardCorners(copy1, boardSize, camera1Corners, 
-				Calib3d.CALIB_CB_ADAPTIVE_THRESH + Calib3d.CALIB_CB_NORMALIZE_IMAGE);
+		stereoDepth.compute(left.getImage(), right.getImage(), disparityToDepth, disparity, points);
 		
-		boolean found2 = Calib3d.findChessboardCorners(copy2, boardSize, camera2Corners, 
-				Calib3d.CALIB_CB_ADAPTIVE_THRESH + Calib3d.CALIB_CB_NORMALIZE_IMAGE);
+		set.setDepth(new Frame(0, left.getSequence(), left.getTimestamp(), disparity, disparityPool), 
+				new Frame(0, left.getSequence(), left.getTimestamp(), points, pointsPool));
 		
-		if(found1 && found2)
+		return true;
+	}
+	
+	private boolean render(FrameSet set)
+	{
+		if(set.getDisparity() != null)
 		{
-			TermCriteria term = new TermCriteria(TermCriteria.COUNT + TermCriteria.EPS, 30, 0.01);
-			Imgproc.cornerSubPix(copy1, camera1Corners, new Size(11, 11), new Size(-1, -1), term);
-			Imgproc.cornerSubPix(copy2, camera2Corners, new Size(11, 11), new Size(-1, -1), term);
-			// save the current frame for further elaborations
-			// show the chessboard inner corners on screen
-			Calib3d.drawChessboardCorners(cam1, boardSize, camera1Corners, found1);
-			Calib3d.drawChessboardCorners(cam2, boardSize, camera2Corners, found2);	
-			
+			//Only this stage's thread touches disparityView, MatView copies it before returning
+			Core.normalize(set.getDisparity().getImage(), disparityView, 0, 255, Core.NORM_MINMAX, CvType.CV_8U);
+			Imgproc.applyColorMap(disparityView, disparityView, Imgproc.COLORMAP_JET);
+			depthDisplay.show(disparityView, set.getTimestamp());
 		}
+		
+		if(set.getRectified(0) != null && set.getRectified(1) != null)
+		{
+			mainViewCorrectedDisplay.show(set.getRectified(0).getImage(), set.getTimestamp());
+			secondViewCorrectedDisplay.show(set.getRectified(1).getImage(), set.getTimestamp());
+		}
+		
+		mainViewDisplay.show(set.getFrame(0).getImage(), set.getTimestamp());
+		secondViewDisplay.show(set.getFrame(1).getImage(), set.getTimestamp());
+		
+		return true;
 	}
 	
 	@FXML
 	private void takeSnapshot()
 	{
-		if(numFrames1 < numFramesToCalib)
+		//Copied by the detect stage, never read from the channels while their workers write them
+		List<Mat> corners = rig.takeFoundCorners();
+		
+		if(corners == null)
 		{
-			camera1Points.add(camera1Corners);
-			camera1Points2f.add(camera1Corners);
-			camera2Points.add(camera2Corners);
-			camera2Points2f.add(camera2Corners);
+			System.out.println("Board not found by every camera, no snapshot taken");
+			return;
+		}
+		
+		addSnapshot(corners);
+	}
+	
+	//Corners of one frame set in which every camera found the whole board
+	private void addSnapshot(List<Mat> corners)
+	{
+		if(numFrames1 < numFramesToCalib && !calibrator.isConverged())
+		{
+			for(int i = 0; i < rig.size(); i++)
+			{
+				rig.getChannel(i).getImagePoints().add(corners.get(i));
+			}
 			objectPoints.add(cameraObj);
 			objectPoints3f.add(cameraObj);
 			
 			numFrames1++;
+			
+			journal(corners);
+			
+			//Re-solved in the background after every snapshot once there are enough of them
+			calibrator.snapshotAdded(objectPoints);
 		}
 		
-		if(numFrames1 == numFramesToCalib)
+		if(numFrames1 >= numFramesToCalib)
 		{
 			//stereoUncalibrated();
-			calibrateCameras();
+			snapButton.setDisable(true);
+		}
+	}
+	
+	private void journal(List<Mat> corners)
+	{
+		if(journalFile == null)
+		{
+			return;
+		}
+		
+		try
+		{
+			if(journal == null)
+			{
+				journal = SnapshotJournal.open(journalFile, rig.size(), cameraObj, rig.getReference().getFrameSize());
+			}
+			
+			journal.append(corners);
+		}
+		catch(IOException e)
+		{
+			System.err.println("Could not write snapshot journal " + journalFile + ": " + e.getMessage());
+			journalFile = null;
+		}
+	}
+	
+	//Calibrates from the snapshots saved by earlier sessions, no cameras needed
+	@FXML
+	private void loadSnapshots()
+	{
+		if(journalFile == null || !journalFile.exists() || calibrator.isBusy())
+		{
+			return;
+		}
+		
+		try
+		{
+			SnapshotJournal saved = journal != null ? journal : SnapshotJournal.load(journalFile);
+			
+			if(saved.getCameras() != rig.size() || saved.getPoints() != cameraObj.total())
+			{
+				System.out.println(journalFile + " does not match the current cameras and board");
+				return;
+			}
+			
+			long start = System.nanoTime();
+			
+			for(int i = 0; i < rig.size(); i++)
+			{
+				CameraChannel channel = rig.getChannel(i);
+				
+				channel.getImagePoints().clear();
+				channel.getImagePoints().addAll(saved.loadImagePoints(i));
+				channel.setFrameSize(saved.getImageSize());
+			}
+			
+			objectPoints.clear();
+			objectPoints.addAll(saved.loadObjectPoints());
+			objectPoints3f.clear();
+			
+			for(Mat object : objectPoints)
+			{
+				objectPoints3f.add(new MatOfPoint3f(object));
+			}
+			numFrames1 = objectPoints.size();
+			
+			System.out.println("Loaded " + numFrames1 + " snapshots in " + (System.nanoTime() - start) / 1000000 + " ms");
+			
+			if(saved != journal)
+			{
+				saved.close();
+			}
+			
+			//Other views than the ones the calibration converged on, solved from scratch. Keyframes are picked anew
+			//against them.
+			calibrator.reset();
+			keyframes.reset();
+			snapButton.setDisable(numFrames1 >= numFramesToCalib);
+			
+			calibrator.snapshotAdded(objectPoints);
+		}
+		catch(IOException e)
+		{
+			System.err.println("Could not read snapshot journal " + journalFile + ": " + e.getMessage());
 		}
 	}
 	
 	private void stereoUncalibrated()
 	{
+		CameraChannel camera1 = rig.getChannel(0);
+		CameraChannel camera2 = rig.getChannel(1);
+		
+		List<Mat> camera1Points = camera1.getImagePoints();
+		List<Mat> camera2Points = camera2.getImagePoints();
+		
+		Mat camera1Dist = camera1.getDistortion();
+		Mat camera2Dist = camera2.getDistortion();
+		
 		System.out.println("Getting fundamental mat");
 		
 		ArrayList<Mat> temp = cloneArrayList(camera1Points);
@@ -326,7 +536,7 @@ public class ViewController {
 		
 		System.out.println("Object points:\n" + objectPoints.get(0));
 		
-		camera1Intrinsic = Calib3d.initCameraMatrix2D(temparray3f, temparray2f, camera1Frame.size());
+		Mat camera1Intrinsic = Calib3d.initCameraMatrix2D(temparray3f, temparray2f, camera1.getFrameSize());
 		
 		temp = cloneArrayList(camera2Points);
 		
@@ -334,7 +544,7 @@ public class ViewController {
 		temparray2f.clear();
 		Converters.Mat_to_vector_vector_Point2f(temp2f, temparray2f);
 		
-		camera2Intrinsic = Calib3d.initCameraMatrix2D(temparray3f, temparray2f, camera2Frame.size());
+		Mat camera2Intrinsic = Calib3d.initCameraMatrix2D(temparray3f, temparray2f, camera2.getFrameSize());
 		
 		MatOfPoint2f totalCorners1 = new MatOfPoint2f();
 		
@@ -349,21 +559,21 @@ public class ViewController {
 		}
 		
 		Mat F = Calib3d.findFundamentalMat(totalCorners1, totalCorners2, Calib3d.FM_8POINT, 0, 0);
-		Mat H1 = new Mat(4, 4, camera1Frame.type());
-		Mat H2 = new Mat(4, 4, camera2Frame.type());
+		Mat H1 = new Mat(4, 4, CvType.CV_8UC3);
+		Mat H2 = new Mat(4, 4, CvType.CV_8UC3);
 		
 		System.out.println(F.dump());
 		
-		Size newSize = new Size(camera1Frame.size().width, camera1Frame.size().height);
+		Size newSize = new Size(camera1.getFrameSize().width, camera1.getFrameSize().height);
 		
 		//System.out.println("Rectifying");
-		boolean done = Calib3d.stereoRectifyUncalibrated(camera1Corners, camera2Corners, F, newSize,H1, H2);
+		boolean done = Calib3d.stereoRectifyUncalibrated(camera1.getCorners(), camera2.getCorners(), F, newSize,H1, H2);
 		
-		camera1Map1 = new Mat();
-		camera1Map2 = new Mat();
+		Mat camera1Map1 = new Mat();
+		Mat camera1Map2 = new Mat();
 		
-		camera2Map1 = new Mat();
-		camera2Map2 = new Mat();
+		Mat camera2Map1 = new Mat();
+		Mat camera2Map2 = new Mat();
 		
 		Mat rectify1 = new Mat();
 		
@@ -381,130 +591,93 @@ public class ViewController {
 		
 		snapButton.setDisable(true);
 		
-		camera1Calibrated = true;
-		camera2Calibrated = true;
+		camera1.setIntrinsic(camera1Intrinsic);
+		camera2.setIntrinsic(camera2Intrinsic);
+		camera1.setRectification(camera1Map1, camera1Map2);
+		camera2.setRectification(camera2Map1, camera2Map2);
 		//System.out.println(camera1Map1.dump());
 		
 		//System.out.println("Done rectifying: " + done);
 		//Imgproc.warpPerspective(camera1Frame, camera1Frame, H1, camera1Frame.size());
 	}
 	
-	private void calibrateCameras()
+	private void loadCalibration()
 	{
-		camera1Intrinsic = Calib3d.initCameraMatrix2D(objectPoints3f, camera1Points2f, camera1Frame.size());
-		camera2Intrinsic = Calib3d.initCameraMatrix2D(objectPoints3f, camera2Points2f, camera2Frame.size());
-		
-		Mat rotation = new Mat();
-		Mat translation = new Mat();
-		Mat essential = new Mat();
-		Mat fundamental = new Mat();
-		
-		System.out.println("Test");
-		double stereoError = Calib3d.stereoCalibrate(objectPoints, camera1Points, camera2Points, camera1Intrinsic, camera1Dist, camera2Intrinsic, camera2Dist,
-				camera1Frame.size(), rotation, translation, essential, fundamental, 
-				Calib3d.CALIB_FIX_ASPECT_RATIO +
-                Calib3d.CALIB_ZERO_TANGENT_DIST +
-                Calib3d.CALIB_USE_INTRINSIC_GUESS +
-                Calib3d.CALIB_SAME_FOCAL_LENGTH +
-                Calib3d.CALIB_RATIONAL_MODEL +
-                Calib3d.CALIB_FIX_K3 + 
-                Calib3d.CALIB_FIX_K4 + 
-                Calib3d.CALIB_FIX_K5,
-                new TermCriteria(TermCriteria.COUNT + TermCriteria.EPS, 30, 0.01));
-		
-		System.out.println("Stereo error: " + stereoError);
-		
-		Mat rectify1 = new Mat();
-		Mat rectify2 = new Mat();
-		Mat projection1 = new Mat();
-		Mat projection2 = new Mat();
-		Mat Q = new Mat();
-		
-		Rect roi1 = new Rect();
-		Rect roi2 = new Rect();
-		
-		//System.out.println("Rectifying");
-		//Calib3d.stereoRectify(camera1Intrinsic, camera1Dist, camera2Intrinsic, camera2Dist, camera2Frame.size(), rotation, translation, 
-		//		rectify1, rectify2, projection1, projection2, Q);
-		Size newSize = new Size(camera1Frame.size().width, camera1Frame.size().height);
-		Calib3d.stereoRectify(camera1Intrinsic, camera1Dist, camera2Intrinsic, camera2Dist, camera1Frame.size(), rotation, translation, 
-				rectify1, rectify2, projection1, projection2, Q, 
-				Calib3d.CALIB_ZERO_DISPARITY, 0, newSize,roi1, roi2);
-		
-		camera1Map1 = new Mat();
-		camera1Map2 = new Mat();
-		
-		camera2Map1 = new Mat();
-		camera2Map2 = new Mat();
-		
-		//System.out.println("initiating rectification");
-		Imgproc.initUndistortRectifyMap(camera1Intrinsic, camera1Dist, rectify1, projection1, newSize, CvType.CV_16SC2, camera1Map1, camera1Map2);
-		Imgproc.initUndistortRectifyMap(camera2Intrinsic, camera2Dist, rectify2, projection2, newSize, CvType.CV_16SC2, camera2Map1, camera2Map2);
-		
-		//System.out.println("Done with that shit");
-		
-		camera1Calibrated = true;
-		camera2Calibrated = true;
-	}
-	
-	private ArrayList<Mat> cloneArrayList(List<Mat> camera1Points2)
-	{
-		ArrayList<Mat> clone = new ArrayList<>();
-		
-		for (Mat item : camera1Points2) {
-			clone.add(item.clone());
+		try
+		{
+			long start = System.nanoTime();
+			
+			if(CalibrationStore.load(calibrationFile, rig))
+			{
+				System.out.println("Loaded calibration " + calibrationFile + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+			}
+		}
+		catch(IOException e)
+		{
+			System.err.println("Could not load calibration " + calibrationFile + ": " + e.getMessage());
 		}
-		
-		return clone;
 	}
 	
-	private void updateImageView(ImageView toUpdate, Image image)
+	//Calibration thread
+	private void saveCalibration()
 	{
-		onFXThread(toUpdate.imageProperty(), image);
-	}
-
-	private <T> void onFXThread(ObjectProperty<T> property, T value) {
-		Platform.runLater(() -> {
-			property.set(value);
-		});
-	}
-	
-	private Image mat2Image(Mat frame) {
-		if(frame.type() != CvType.CV_8U)
-		{
-			frame.convertTo(frame, CvType.CV_8U);
-		}
 		try
 		{
-			return SwingFXUtils.toFXImage(matToBufferedImage(frame), null);
+			CalibrationStore.save(calibrationFile, rig);
 		}
-		catch (Exception e)
+		catch(IOException e)
 		{
-			System.err.println("Cannot convert the Mat obejct: " + e);
-			return null;
+			System.err.println("Could not save calibration " + calibrationFile + ": " + e.getMessage());
 		}
 	}
 	
-	private BufferedImage matToBufferedImage(Mat original) {
-		// init
-		int type = 0;
+	@FXML
+	private void cancelCalibration()
+	{
+		calibrator.cancel();
+	}
+	
+	private void showCalibrationStatus(double fraction, String message)
+	{
+		calibrationProgress.setProgress(fraction);
+		calibrationStatus.setText(message);
+	}
+	
+	private void calibrationSolved()
+	{
+		String status = calibrator.getSolvedViews() + " views, error " + String.format("%.3f", calibrator.getError());
+		CalibrationAnalysis analysis = calibrator.getAnalysis();
 		
-		if(original.channels() == 1)
+		if(analysis != null && !analysis.getOutliers().isEmpty())
 		{
-			type = BufferedImage.TYPE_BYTE_GRAY;
+			status += ", dropped views " + analysis.getOutliers();
 		}
-		else if(original.channels() == 3)
+		
+		if(calibrator.isConverged())
 		{
-			type = BufferedImage.TYPE_3BYTE_BGR;
+			//Stop early, more snapshots would not change the result
+			status += ", converged";
+			snapButton.setDisable(true);
 		}
 		
-		BufferedImage image = new BufferedImage(original.width(), original.height(), type);
-		WritableRaster raster = image.getRaster();
-		DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+		showCalibrationStatus(1, status);
+		cancelButton.setDisable(calibrator.isBusy());
+	}
+	
+	private void calibrationEnded(String message)
+	{
+		showCalibrationStatus(0, message);
+		cancelButton.setDisable(calibrator.isBusy());
+	}
+	
+	private ArrayList<Mat> cloneArrayList(List<Mat> camera1Points2)
+	{
+		ArrayList<Mat> clone = new ArrayList<>();
 		
-		byte[] data = dataBuffer.getData();
+		for (Mat item : camera1Points2) {
+			clone.add(item.clone());
+		}
 		
-		original.get(0, 0, data);
-		return image;
+		return clone;
 	}
 }